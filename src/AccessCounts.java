@@ -0,0 +1,45 @@
+import java.util.Arrays;
+
+/*
+rPeanut - is a simple simulator of the rPeANUt computer.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+// How often each word of memory has been read, written, fetched as an
+// instruction, and missed in the cache. Cache only makes them, 512K of
+// counters, once the heat map is first opened. The arrays are final so the
+// simulator thread sees them filled in when the event thread makes them.
+public class AccessCounts {
+	final int reads[] = new int[Memory.addressSize];
+	final int writes[] = new int[Memory.addressSize];
+	final int fetches[] = new int[Memory.addressSize];
+	final int misses[] = new int[Memory.addressSize];
+
+	public void clear() {
+		Arrays.fill(reads, 0);
+		Arrays.fill(writes, 0);
+		Arrays.fill(fetches, 0);
+		Arrays.fill(misses, 0);
+	}
+
+	// copies the counts into c, which is how a view gets a consistent-ish
+	// picture without stopping the simulator
+	public void copyTo(AccessCounts c) {
+		System.arraycopy(reads, 0, c.reads, 0, reads.length);
+		System.arraycopy(writes, 0, c.writes, 0, writes.length);
+		System.arraycopy(fetches, 0, c.fetches, 0, fetches.length);
+		System.arraycopy(misses, 0, c.misses, 0, misses.length);
+	}
+}
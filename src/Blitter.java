@@ -0,0 +1,208 @@
+/*
+rPeanut - is a simple simulator of the rPeANUt computer.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+// Blitter for the frame buffer, mapped at 0xFF10 - 0xFF19:
+//   0xFF10 command - writing starts an operation, bit 8 set asks for an
+//                    interrupt (vector 5) when it completes
+//                    1 fill the rectangle x,y,width,height with colour
+//                    2 copy the rectangle at srcx,srcy to x,y (may overlap)
+//                    3 xor the sprite at address source onto x,y
+//   0xFF11 status  - bit 0 busy, bit 1 done
+//   0xFF12 x
+//   0xFF13 y
+//   0xFF14 width
+//   0xFF15 height
+//   0xFF16 srcx, or the address of the sprite
+//   0xFF17 srcy
+//   0xFF18 colour  - 0 black, 1 white
+//   0xFF19 page    - the frame buffer drawn to, 0 for 0x7C40, 1 for 0x7880
+//                    (see Display)
+// Coordinates are in pixels and are clipped to the screen before any work
+// is done, a copy also to where its source is on the screen. A sprite is
+// height rows of (width + 31) / 32 words, the lowest bit of the first word
+// being the leftmost pixel, the same as the frame buffer.
+// The work is done all at once, however, the blitter is modelled as moving
+// WORDSPERSTEP words per instruction and stays busy for that long.
+public class Blitter implements Device {
+	static final int START = 0xFF10;
+	static final int END = 0xFF19;
+
+	static final int COMMAND = 0;
+	static final int STATUS = 1;
+	static final int X = 2;
+	static final int Y = 3;
+	static final int WIDTH = 4;
+	static final int HEIGHT = 5;
+	static final int SRCX = 6;
+	static final int SRCY = 7;
+	static final int COLOUR = 8;
+	static final int PAGE = 9;
+
+	static final int FILL = 1;
+	static final int COPY = 2;
+	static final int XOR = 3;
+
+	static final int INTBIT = 1 << 8;
+
+	static final int BUSY = 1;
+	static final int DONE = 2;
+
+	static final int SETUPCOST = 10;
+	static final int WORDSPERSTEP = 4;
+
+	static final int wordsPerLine = Screen.wordsPerLine;
+
+	Simulate sim;
+	int reg[];
+
+	private int fb[];
+	private int out[];
+	private boolean interrupt;
+	private int doneat;
+
+	public Blitter(Simulate sim) {
+		this.sim = sim;
+		reg = new int[END - START + 1];
+		fb = new int[wordsPerLine * Simulate.SCREENHEIGHT];
+		out = new int[fb.length];
+	}
+
+	public void reset() {
+		for (int i = 0; i < reg.length; i++)
+			reg[i] = 0;
+		interrupt = false;
+	}
+
+	@Override
+	public int read(int add) {
+		int r = add - START;
+		return r == COMMAND ? 0 : reg[r];
+	}
+
+	@Override
+	public void write(int add, int value) throws MemFaultException {
+		int r = add - START;
+		if (r == COMMAND) {
+			start(value);
+		} else if (r != STATUS) {
+			reg[r] = value;
+		}
+	}
+
+	private void start(int command) throws MemFaultException {
+		int op = command & 0xff;
+		if (op != FILL && op != COPY && op != XOR)
+			return;
+
+		Memory mem = sim.memory;
+		int base = Display.PAGES[reg[PAGE] & 1];
+		for (int i = 0; i < fb.length; i++) {
+			fb[i] = mem.get(base + i, false);
+		}
+		System.arraycopy(fb, 0, out, 0, fb.length);
+
+		int x = reg[X], y = reg[Y], w = reg[WIDTH], h = reg[HEIGHT];
+		int sx = reg[SRCX], sy = reg[SRCY];
+
+		// clip the destination to the screen, and for a copy to where the
+		// source is on the screen too, in long as the sizes are the
+		// program's and may be anything
+		long x0 = Math.max(0, x), y0 = Math.max(0, y);
+		long x1 = Math.min((long) x + w, Simulate.SCREENWIDTH);
+		long y1 = Math.min((long) y + h, Simulate.SCREENHEIGHT);
+		if (op == COPY) {
+			x0 = Math.max(x0, (long) x - sx);
+			y0 = Math.max(y0, (long) y - sy);
+			x1 = Math.min(x1, (long) x - sx + Simulate.SCREENWIDTH);
+			y1 = Math.min(y1, (long) y - sy + Simulate.SCREENHEIGHT);
+		}
+		long stride = (w + 31L) / 32; // sprite words per row
+
+		for (int dy = (int) y0; dy < y1; dy++) {
+			long row = (long) dy - y;
+			long lastword = -1;
+			int sprite = 0;
+			for (int dx = (int) x0; dx < x1; dx++) {
+				long col = (long) dx - x;
+				switch (op) {
+				case FILL:
+					setPixel(dx, dy, reg[COLOUR] & 1);
+					break;
+				case COPY:
+					setPixel(dx, dy, getPixel(fb, (int) (sx + col), (int) (sy + row)));
+					break;
+				case XOR:
+					// one fetch for each 32 pixels
+					if ((col >> 5) != lastword) {
+						lastword = col >> 5;
+						sprite = mem.get((int) (0xffff & (sx + row * stride + lastword)), false);
+					}
+					setPixel(dx, dy, getPixel(out, dx, dy) ^ ((sprite >> (col & 31)) & 1));
+					break;
+				}
+			}
+		}
+
+		// only write back the words that changed so only their scan lines
+		// need to be redrawn
+		for (int i = 0; i < out.length; i++) {
+			if (out[i] != fb[i]) {
+				mem.set(base + i, out[i]);
+			}
+		}
+		// the cost is of the clipped rectangle, at most a screen's worth
+		int words = (x1 > x0 && y1 > y0) ? (int) ((y1 - y0) * ((x1 - x0 + 31) / 32 + 1)) : 0;
+		if (op != FILL)
+			words *= 2;
+
+		sim.cache.addClocks(SETUPCOST + words);
+		interrupt = (command & INTBIT) != 0;
+		reg[STATUS] = BUSY;
+		doneat = sim.count + words / WORDSPERSTEP;
+		if (doneat <= sim.count) {
+			complete();
+		} else {
+			sim.schedule(doneat);
+		}
+	}
+
+	// called by the simulator when a scheduled event is due
+	public void event() {
+		if (reg[STATUS] == BUSY) {
+			if (sim.count >= doneat) {
+				complete();
+			} else {
+				sim.schedule(doneat);
+			}
+		}
+	}
+
+	private void complete() {
+		reg[STATUS] = DONE;
+		if (interrupt)
+			sim.raiseInterrupt(Simulate.BLITINT);
+	}
+
+	private static int getPixel(int buf[], int x, int y) {
+		return (buf[y * wordsPerLine + (x >> 5)] >> (x & 31)) & 1;
+	}
+
+	private void setPixel(int x, int y, int c) {
+		int i = y * wordsPerLine + (x >> 5);
+		out[i] = (out[i] & ~(1 << (x & 31))) | (c << (x & 31));
+	}
+}
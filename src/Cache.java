@@ -43,7 +43,9 @@ along with this program.  If not, see <http://www.gnu.org/licenses/>.
 
 // The cache simulator
 // Memory is still fetched as normal, but this shows what the cache should look like
-public class Cache extends JFrame implements ActionListener {
+// The window is only created the first time it is shown, until then just the
+// counts are kept, so a Simulate can be created without a display.
+public class Cache implements ActionListener {
 	enum Mode {
 		NONE,
 		FULLY,
@@ -67,6 +69,9 @@ public class Cache extends JFrame implements ActionListener {
 	
 	int hits;
 	int accesses;
+	int reads;
+	int writes;
+	AccessCounts counts; // for each word, null until counts() is first called
 
 	class Line {
 		String id;
@@ -106,6 +111,8 @@ public class Cache extends JFrame implements ActionListener {
 
 	// GUI stuff:
 
+	JFrame frame;
+	Component relativeTo;
 	JPanel panel;
 	JPanel buttonPanel;
 	JPanel statusPanel;
@@ -142,11 +149,36 @@ public class Cache extends JFrame implements ActionListener {
 
 	public Cache(Memory mem) {
 		this.mem = mem;
+		cachesize = 16;
+		linesize = 8;
+		setsize = 4;
+		setMode(Mode.NONE);
+	}
 
-		this.setTitle("Cache simulator");
+	public void setVisible(boolean visible) {
+		if (visible && frame == null)
+			createWindow();
+		if (frame != null)
+			frame.setVisible(visible);
+	}
+
+	public void setAlwaysOnTop(boolean top) {
+		if (frame != null)
+			frame.setAlwaysOnTop(top);
+	}
 
-		this.setDefaultCloseOperation(JFrame.HIDE_ON_CLOSE);
-		this.addWindowListener(new java.awt.event.WindowAdapter() {
+	public void setLocationRelativeTo(Component c) {
+		relativeTo = c;
+		if (frame != null)
+			frame.setLocationRelativeTo(c);
+	}
+
+	private void createWindow() {
+		frame = new JFrame();
+		frame.setTitle("Cache simulator");
+
+		frame.setDefaultCloseOperation(JFrame.HIDE_ON_CLOSE);
+		frame.addWindowListener(new java.awt.event.WindowAdapter() {
 			public void windowClosing(WindowEvent winEvt) {
 				setMode(Mode.NONE);
 				modeGroup.setSelected(noneRadio.getModel(), true);
@@ -204,8 +236,8 @@ public class Cache extends JFrame implements ActionListener {
 		statusPanel.add(statusLabel);
 		statusPanel.add(actionLabel);
 
-		buttonPanel.setAlignmentX(LEFT_ALIGNMENT);
-		statusPanel.setAlignmentX(LEFT_ALIGNMENT);
+		buttonPanel.setAlignmentX(Component.LEFT_ALIGNMENT);
+		statusPanel.setAlignmentX(Component.LEFT_ALIGNMENT);
 
 		// Setup the table:
 		Object[] tableNames = {"ID", "Tag", "Data", "Valid"};
@@ -246,7 +278,6 @@ public class Cache extends JFrame implements ActionListener {
 		linesScroll = new JScrollPane(linesTable);
 
 		// Cache size slider:
-		cachesize = 16;
 		cacheSliderPanel = new JPanel();
 		cacheSlider = new JSlider(JSlider.HORIZONTAL, 0, 8, (int)Math.sqrt(cachesize));
 		cacheSlider.setPaintTicks(true);
@@ -270,7 +301,6 @@ public class Cache extends JFrame implements ActionListener {
 		});
 
 		// Line size slider:
-		linesize = 8;
 		lineSliderPanel = new JPanel();
 		lineSlider = new JSlider(JSlider.HORIZONTAL, 0, 8, (int)Math.sqrt(linesize));
 		lineSlider.setPaintTicks(true);
@@ -287,7 +317,6 @@ public class Cache extends JFrame implements ActionListener {
 		});
 
 		// Set size slider:
-		setsize = 4;
 		setSliderPanel = new JPanel();
 		setSlider = new JSlider(JSlider.HORIZONTAL, 0, (int)Math.sqrt(cachesize), (int)Math.sqrt(setsize));
 		setSlider.setPaintTicks(true);
@@ -312,15 +341,30 @@ public class Cache extends JFrame implements ActionListener {
 		panel.add(statusPanel);
 		panel.add(linesScroll);
 
-		setContentPane(panel);
-		this.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
-		pack();
+		frame.setContentPane(panel);
+		frame.setLayout(new BoxLayout(panel, BoxLayout.Y_AXIS));
+		if (relativeTo != null)
+			frame.setLocationRelativeTo(relativeTo);
 
-		setMode(Mode.NONE);
+		modeGroup.setSelected(radio(mode).getModel(), true);
+		showMode();
+		showLines();
+	}
+
+	private JRadioButton radio(Mode mode) {
+		switch (mode) {
+		case FULLY:
+			return fullyRadio;
+		case DIRECT:
+			return directRadio;
+		case SET:
+			return setRadio;
+		default:
+			return noneRadio;
+		}
 	}
 
 	void initlines() {
-		linesTableModel.setRowCount(0);
 		lines = new Line[cachesize];
 		for (int i = 0; i < cachesize; i++) {
 			lines[i] = new Line(linesize);
@@ -340,14 +384,44 @@ public class Cache extends JFrame implements ActionListener {
 		default:
 			break;
 		}
-		for (int i = 0; i < cachesize; i++) {
+		showLines();
+	}
+
+	private void showLines() {
+		if (frame == null || lines == null)
+			return;
+		linesTableModel.setRowCount(0);
+		for (int i = 0; i < lines.length; i++) {
 			linesTableModel.addRow(lines[i].data(mode));
 		}
 	}
 
+	// the access counts, they are only kept from the first call on
+	public AccessCounts counts() {
+		if (counts == null)
+			counts = new AccessCounts();
+		return counts;
+	}
+
 	public int get(int addr) throws MemFaultException {
 		if (!mem.inRange(addr)) return mem.get(addr);
-		actionLabel.setText("");
+		if (counts != null)
+			counts.reads[addr & (Memory.addressSize - 1)]++;
+		return read(addr);
+	}
+
+	// an instruction fetch, the same as get() except for how it is counted
+	public int fetch(int addr) throws MemFaultException {
+		if (!mem.inRange(addr)) return mem.get(addr);
+		if (counts != null)
+			counts.fetches[addr & (Memory.addressSize - 1)]++;
+		return read(addr);
+	}
+
+	private int read(int addr) throws MemFaultException {
+		if (frame != null)
+			actionLabel.setText("");
+		reads++;
 		int ret = 0;
 		switch (mode) {
 		case NONE:
@@ -360,6 +434,8 @@ public class Cache extends JFrame implements ActionListener {
 			if (hit(addr)) {
 				addClocks(3);
 			} else {
+				if (counts != null)
+					counts.misses[addr & (Memory.addressSize - 1)]++;
 				loadCache(addr);
 				addClocks(200);
 			}
@@ -376,7 +452,11 @@ public class Cache extends JFrame implements ActionListener {
 			mem.set(addr, val);
 			return;
 		}
-		actionLabel.setText("");
+		if (counts != null)
+			counts.writes[addr & (Memory.addressSize - 1)]++;
+		if (frame != null)
+			actionLabel.setText("");
+		writes++;
 		switch (mode) {
 		case NONE:
 			mem.set(addr, val);
@@ -388,6 +468,8 @@ public class Cache extends JFrame implements ActionListener {
 			if (hit(addr)) {
 				addClocks(3);
 			} else {
+				if (counts != null)
+					counts.misses[addr & (Memory.addressSize - 1)]++;
 				addClocks(200);
 			}
 			mem.set(addr, val);
@@ -405,6 +487,12 @@ public class Cache extends JFrame implements ActionListener {
 				lines[i].access = count;
 			}
 		}
+		if (hit) {
+			hits++;
+		}
+		accesses++;
+		if (frame == null)
+			return hit;
 		if (hit) {
 			statusLabel.setText(String.format("HIT 0x%04X", addr));
 			statusLabel.setBackground(Color.GREEN);
@@ -414,10 +502,6 @@ public class Cache extends JFrame implements ActionListener {
 			statusLabel.setBackground(Color.RED);
 			statusLabel.setForeground(Color.WHITE);
 		}
-		if (hit) {
-			hits++;
-		}
-		accesses++;
 		if (accesses != 0) {
 			float hitrate = ((float)hits / accesses);
 			rateLabel.setText("Hits = " + hits + ", Accesses = " + accesses + ", Hit Rate = " + (int)(hitrate * 100) + "% (" + hitrate + ")");
@@ -494,12 +578,16 @@ public class Cache extends JFrame implements ActionListener {
 			line.words[i] = mem.get(addr + i, false); // false - don't do profile
 		}
 		line.valid = true;
-		linesTableModel.insertRow(lid, line.data(mode));
-		linesTableModel.removeRow(lid + 1);
+		if (frame != null) {
+			linesTableModel.insertRow(lid, line.data(mode));
+			linesTableModel.removeRow(lid + 1);
+		}
 	}
 
 	void addClocks(int n) {
 		count += n;
+		if (frame == null)
+			return;
 		timeLabel.setText("Time: " + count + "ns");
 		actionLabel.setText("(+" + n + ")");
 	}
@@ -522,8 +610,53 @@ public class Cache extends JFrame implements ActionListener {
 		setMode(mode);
 	}
 
+	// The counters before an instruction, so one that stops to wait for
+	// input (see InputWaitException) can be undone and run again later.
+	private int markcount, markhits, markaccesses, markreads, markwrites;
+	private int markaddr, markfetches, markmisses;
+
+	void mark(int addr) {
+		markcount = count;
+		markhits = hits;
+		markaccesses = accesses;
+		markreads = reads;
+		markwrites = writes;
+		markaddr = addr & (Memory.addressSize - 1);
+		if (counts != null) {
+			markfetches = counts.fetches[markaddr];
+			markmisses = counts.misses[markaddr];
+		}
+	}
+
+	void undo() {
+		count = markcount;
+		hits = markhits;
+		accesses = markaccesses;
+		reads = markreads;
+		writes = markwrites;
+		if (counts != null) {
+			counts.fetches[markaddr] = markfetches;
+			counts.misses[markaddr] = markmisses;
+		}
+	}
+
 	private void setMode(Mode mode) {
 		this.mode = mode;
+		if (mode != Mode.NONE)
+			initlines();
+
+		count = 0;
+		hits = 0;
+		accesses = 0;
+		reads = 0;
+		writes = 0;
+		if (counts != null)
+			counts.clear();
+		if (frame != null)
+			showMode();
+	}
+
+	private void showMode() {
 		switch (mode) {
 		case NONE:
 			statusPanel.setVisible(false);
@@ -538,7 +671,6 @@ public class Cache extends JFrame implements ActionListener {
 			linesScroll.setVisible(true);
 			cacheSliderPanel.setVisible(true);
 			lineSliderPanel.setVisible(true);
-			initlines();
 			break;
 		}
 		if (mode == Mode.FULLY && idColumnVisible) {
@@ -553,9 +685,6 @@ public class Cache extends JFrame implements ActionListener {
 		setSliderPanel.setVisible(mode == Mode.SET);
 		idColumn.setHeaderValue(mode == Mode.SET ? "Set" : "ID");
 
-		count = 0;
-		hits = 0;
-		accesses = 0;
 		rateLabel.setText("");
 		statusLabel.setText("WAITING");
 		statusLabel.setBackground(Color.WHITE);
@@ -564,7 +693,7 @@ public class Cache extends JFrame implements ActionListener {
 
 		// Allow enough horizontal space:
 		timeLabel.setPreferredSize(new Dimension(200,25));
-		pack();
+		frame.pack();
 		timeLabel.setText("Time: 0ns");
 	}
 }
@@ -0,0 +1,192 @@
+/*
+rPeanut - is a simple simulator of the rPeANUt computer.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+// Arithmetic coprocessor, mapped at 0xFF00 - 0xFF06:
+//   0xFF00 A       - first operand
+//   0xFF01 B       - second operand
+//   0xFF02 command - writing starts an operation, bit 8 set asks for an
+//                    interrupt (vector 4) when it completes
+//   0xFF03 status  - bit 0 busy, bit 1 done, bit 2 divide by zero
+//   0xFF04 result  - low word of a product, quotient, or the result
+//   0xFF05 result  - high word of a product, or the remainder
+//   0xFF06 latency - instructions until an operation completes
+// The results change only when an operation completes.
+public class Coprocessor implements Device {
+	static final int START = 0xFF00;
+	static final int END = 0xFF06;
+
+	static final int A = 0;
+	static final int B = 1;
+	static final int COMMAND = 2;
+	static final int STATUS = 3;
+	static final int RESULTLO = 4;
+	static final int RESULTHI = 5;
+	static final int LATENCY = 6;
+
+	static final int MUL = 1; // signed 32x32 -> 64
+	static final int MULU = 2; // unsigned 32x32 -> 64
+	static final int DIV = 3; // signed quotient and remainder
+	static final int FIXMUL = 4; // signed 16.16 fixed point
+	static final int ISQRT = 5; // unsigned integer square root
+
+	static final int INTBIT = 1 << 8;
+
+	static final int BUSY = 1;
+	static final int DONE = 2;
+	static final int DIVZERO = 4;
+
+	static final int DEFAULTLATENCY = 4;
+
+	Simulate sim;
+	int a, b;
+	int lo, hi;
+	int status;
+	int latency;
+
+	private int nextlo, nexthi, nextstatus;
+	private boolean interrupt;
+	private int doneat;
+
+	public Coprocessor(Simulate sim) {
+		this.sim = sim;
+		reset();
+	}
+
+	public void reset() {
+		a = 0;
+		b = 0;
+		lo = 0;
+		hi = 0;
+		status = 0;
+		latency = DEFAULTLATENCY;
+		interrupt = false;
+	}
+
+	@Override
+	public int read(int add) {
+		switch (add - START) {
+		case A:
+			return a;
+		case B:
+			return b;
+		case STATUS:
+			return status;
+		case RESULTLO:
+			return lo;
+		case RESULTHI:
+			return hi;
+		case LATENCY:
+			return latency;
+		default:
+			return 0;
+		}
+	}
+
+	@Override
+	public void write(int add, int value) {
+		switch (add - START) {
+		case A:
+			a = value;
+			break;
+		case B:
+			b = value;
+			break;
+		case COMMAND:
+			start(value);
+			break;
+		case LATENCY:
+			latency = Math.max(0, value);
+			break;
+		default:
+			break;
+		}
+	}
+
+	private void start(int command) {
+		nextstatus = DONE;
+		long r;
+		switch (command & 0xff) {
+		case MUL:
+			r = (long) a * b;
+			nextlo = (int) r;
+			nexthi = (int) (r >> 32);
+			break;
+		case MULU:
+			r = (a & 0xffffffffL) * (b & 0xffffffffL);
+			nextlo = (int) r;
+			nexthi = (int) (r >>> 32);
+			break;
+		case DIV:
+			if (b == 0) {
+				nextlo = 0;
+				nexthi = 0;
+				nextstatus |= DIVZERO;
+			} else {
+				nextlo = a / b;
+				nexthi = a % b;
+			}
+			break;
+		case FIXMUL:
+			r = ((long) a * b) >> 16;
+			nextlo = (int) r;
+			nexthi = (int) (r >> 32);
+			break;
+		case ISQRT:
+			nextlo = isqrt(a & 0xffffffffL);
+			nexthi = 0;
+			break;
+		default:
+			return;
+		}
+		interrupt = (command & INTBIT) != 0;
+		status = BUSY;
+		if (latency == 0) {
+			complete();
+		} else {
+			doneat = sim.count + latency;
+			sim.schedule(doneat);
+		}
+	}
+
+	// called by the simulator when a scheduled event is due
+	public void event() {
+		if (status == BUSY) {
+			if (sim.count >= doneat) {
+				complete();
+			} else {
+				sim.schedule(doneat);
+			}
+		}
+	}
+
+	private void complete() {
+		lo = nextlo;
+		hi = nexthi;
+		status = nextstatus;
+		if (interrupt)
+			sim.raiseInterrupt(Simulate.COPROCINT);
+	}
+
+	static int isqrt(long v) {
+		long r = (long) Math.sqrt((double) v);
+		while (r * r > v)
+			r--;
+		while ((r + 1) * (r + 1) <= v)
+			r++;
+		return (int) r;
+	}
+}
@@ -0,0 +1,252 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/*
+rPeanut - is a simple simulator of the rPeANUt computer.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+// Turns instruction words back into assembly. The decoding is table driven,
+// each entry gives the bits that must match and how the operands are laid
+// out. Addresses that have a label are shown by the label. The text is
+// built up in a reused StringBuilder so dumping memory allocates next to
+// nothing for each word.
+public class Disassembler {
+	// operand layouts, r1 is bits 24-27, r2 bits 20-23 and r3 bits 16-19
+	static final int NONE = 0;
+	static final int R1R2R3 = 1; // add R1 R2 R3
+	static final int R2R3 = 2; // neg R2 R3, load R2 R3
+	static final int ADDR = 3; // call addr
+	static final int R3ADDR = 4; // jumpz R3 addr
+	static final int BIT = 5; // set IM
+	static final int R3 = 6; // push R3
+	static final int ROTIMM = 7; // rotate #n R2 R3
+	static final int ROTREG = 8; // rotate R1 R2 R3
+	static final int IMMR3 = 9; // load #n R3
+	static final int ADDRR3 = 10; // load addr R3
+	static final int R2DISPR3 = 11; // load R2 #n R3, store R2 #n R3
+	static final int R2ADDR = 12; // store R2 addr
+
+	static class Op {
+		int mask, match;
+		String name;
+		int form;
+
+		Op(int mask, int match, String name, int form) {
+			this.mask = mask;
+			this.match = match;
+			this.name = name;
+			this.form = form;
+		}
+	}
+
+	// in the same order the simulator tests them
+	static final Op OPS[] = {
+			new Op(0xFFFFFFFF, 0x00000000, "halt", NONE),
+			new Op(0xF0000000, 0x10000000, "add", R1R2R3),
+			new Op(0xF0000000, 0x20000000, "sub", R1R2R3),
+			new Op(0xF0000000, 0x30000000, "mult", R1R2R3),
+			new Op(0xF0000000, 0x40000000, "div", R1R2R3),
+			new Op(0xF0000000, 0x50000000, "mod", R1R2R3),
+			new Op(0xF0000000, 0x60000000, "and", R1R2R3),
+			new Op(0xF0000000, 0x70000000, "or", R1R2R3),
+			new Op(0xF0000000, 0x80000000, "xor", R1R2R3),
+			new Op(0xFF000000, 0xA0000000, "neg", R2R3),
+			new Op(0xFF000000, 0xA1000000, "not", R2R3),
+			new Op(0xFF000000, 0xA2000000, "move", R2R3),
+			new Op(0xFFFF0000, 0xA3000000, "call", ADDR),
+			new Op(0xFFFF0000, 0xA3010000, "return", NONE),
+			new Op(0xFFFF0000, 0xA3020000, "trap", NONE),
+			new Op(0xFFFF0000, 0xA4000000, "jump", ADDR),
+			new Op(0xFFF00000, 0xA4100000, "jumpz", R3ADDR),
+			new Op(0xFFF00000, 0xA4200000, "jumpn", R3ADDR),
+			new Op(0xFFF00000, 0xA4300000, "jumpnz", R3ADDR),
+			new Op(0xFFF00000, 0xA5000000, "reset", BIT),
+			new Op(0xFFF00000, 0xA5100000, "set", BIT),
+			new Op(0xFFF00000, 0xA6000000, "push", R3),
+			new Op(0xFFF00000, 0xA6100000, "pop", R3),
+			new Op(0xFF000000, 0xB0000000, "rotate", ROTIMM),
+			new Op(0xF0000000, 0xE0000000, "rotate", ROTREG),
+			new Op(0xFFF00000, 0xC0000000, "load", IMMR3),
+			new Op(0xFFF00000, 0xC1000000, "load", ADDRR3),
+			new Op(0xFF000000, 0xC2000000, "load", R2R3),
+			new Op(0xFF000000, 0xC3000000, "load", R2DISPR3),
+			new Op(0xFF0F0000, 0xD1000000, "store", R2ADDR),
+			new Op(0xFF000000, 0xD2000000, "store", R2R3),
+			new Op(0xFF000000, 0xD3000000, "store", R2DISPR3) };
+
+	// the entries that could match, by the top byte of the word
+	private static final Op BYTOP[][] = new Op[256][];
+
+	static {
+		for (int b = 0; b < 256; b++) {
+			int n = 0;
+			Op ops[] = new Op[OPS.length];
+			for (Op op : OPS) {
+				if ((op.mask >>> 24 & b) == op.match >>> 24)
+					ops[n++] = op;
+			}
+			BYTOP[b] = java.util.Arrays.copyOf(ops, n);
+		}
+	}
+
+	static final String REGS[] = { "R0", "R1", "R2", "R3", "R4", "R5", "R6",
+			"R7", "SP", "SR", "PC", "ONE", "ZERO", "MONE", "R14", "R15" };
+	static final String BITS[] = { "OF", "IM", "TI" };
+	private static final char HEX[] = "0123456789abcdef".toCharArray();
+
+	Memory memory; // for the labels, may be null
+	private final StringBuilder sb = new StringBuilder(64);
+
+	public Disassembler(Memory memory) {
+		this.memory = memory;
+	}
+
+	static Op decode(int word) {
+		for (Op op : BYTOP[word >>> 24]) {
+			if ((word & op.mask) == op.match)
+				return op;
+		}
+		return null;
+	}
+
+	// the instruction name, or null if the word is not an instruction
+	static String mnemonic(int word) {
+		Op op = decode(word);
+		return op == null ? null : op.name;
+	}
+
+	public String disassemble(int word) {
+		sb.setLength(0);
+		disassemble(word, sb);
+		return sb.toString();
+	}
+
+	// Appends the assembly for the word, a word that is not an instruction
+	// is shown as a block.
+	public void disassemble(int word, StringBuilder sb) {
+		Op op = decode(word);
+		if (op == null) {
+			sb.append("block #");
+			hex(sb, word, 8);
+			return;
+		}
+		sb.append(op.name);
+		int r1 = (word >> 24) & 0xf, r2 = (word >> 20) & 0xf, r3 = (word >> 16) & 0xf;
+		switch (op.form) {
+		case R1R2R3:
+			reg(sb, r1);
+			reg(sb, r2);
+			reg(sb, r3);
+			break;
+		case R2R3:
+			reg(sb, r2);
+			reg(sb, r3);
+			break;
+		case ADDR:
+			address(sb, word);
+			break;
+		case R3ADDR:
+			reg(sb, r3);
+			address(sb, word);
+			break;
+		case BIT:
+			sb.append(' ').append(r3 < BITS.length ? BITS[r3] : Integer.toString(r3));
+			break;
+		case R3:
+			reg(sb, r3);
+			break;
+		case ROTIMM:
+			sb.append(" #").append(word & 0x1f);
+			reg(sb, r2);
+			reg(sb, r3);
+			break;
+		case ROTREG:
+			reg(sb, r1);
+			reg(sb, r2);
+			reg(sb, r3);
+			break;
+		case IMMR3:
+			sb.append(" #").append((short) word);
+			reg(sb, r3);
+			break;
+		case ADDRR3:
+			address(sb, word);
+			reg(sb, r3);
+			break;
+		case R2DISPR3:
+			reg(sb, r2);
+			sb.append(" #").append((short) word);
+			reg(sb, r3);
+			break;
+		case R2ADDR:
+			reg(sb, r2);
+			address(sb, word);
+			break;
+		default:
+			break;
+		}
+	}
+
+	private static void reg(StringBuilder sb, int r) {
+		sb.append(' ').append(REGS[r]);
+	}
+
+	private void address(StringBuilder sb, int word) {
+		int add = word & 0xffff;
+		String label = memory == null ? null : memory.label(add);
+		sb.append(' ');
+		if (label != null)
+			sb.append(label);
+		else
+			hex(sb, add, 4);
+	}
+
+	static void hex(StringBuilder sb, int v, int digits) {
+		sb.append('0').append('x');
+		for (int i = digits - 1; i >= 0; i--)
+			sb.append(HEX[(v >>> (i * 4)) & 0xf]);
+	}
+
+	// Writes each word of memory that is not zero, with its address, value
+	// and assembly, and a line for each label.
+	//   0x0100 0xc0000001  load #1 R0
+	public void dump(OutputStream out) throws IOException {
+		Writer w = new OutputStreamWriter(out, "US-ASCII");
+		char buf[] = new char[128];
+		for (int i = 0; i < Memory.addressSize; i++) {
+			int word = memory.value(i);
+			String label = memory.label(i);
+			if (word == 0 && label == null)
+				continue;
+			sb.setLength(0);
+			if (label != null)
+				sb.append(label).append(":\n");
+			hex(sb, i, 4);
+			sb.append(' ');
+			hex(sb, word, 8);
+			sb.append("  ");
+			disassemble(word, sb);
+			sb.append('\n');
+			if (sb.length() > buf.length)
+				buf = new char[sb.length()];
+			sb.getChars(0, sb.length(), buf, 0);
+			w.write(buf, 0, sb.length());
+		}
+		w.flush();
+	}
+}
@@ -0,0 +1,123 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/*
+rPeanut - is a simple simulator of the rPeANUt computer.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+public class DisassemblerTest {
+
+	// one of each instruction form, and a word that is not an instruction
+	static final String PROGRAM = "0x0100 :\n"
+			+ "start : add R1 R2 R3\n sub R4 R2 SP\n mult R4 SR SP\n"
+			+ " div R4 R2 R0\n mod R4 R2 R7\n and R4 R2 R1\n or R1 R3 R5\n"
+			+ " xor R1 R3 R5\n neg R1 R5\n not R1 R5\n move R1 R5\n"
+			+ " call sub1\n return\n trap\n jump start\n jumpz R3 sub1\n"
+			+ " jumpn R3 0x1234\n jumpnz R3 0x1234\n reset OF\n set IM\n"
+			+ " set TI\n push R5\n pop R5\n rotate #3 R1 R2\n"
+			+ " rotate R5 R1 R2\n load #0xABCD R5\n load #-3 R5\n"
+			+ " load #0x7FFF R5\n load 0xABCD R5\n load R1 R5\n"
+			+ " load R1 #0xABCD R5\n load R1 #12 R5\n store R5 0xABCD\n"
+			+ " store R1 R5\n store R1 #0xFFF0 R5\n store R1 #12 R5\n"
+			+ " block #0x9abcdef0\n"
+			+ "sub1 : halt\n jump start\n";
+
+	// Turns a -disasm listing back into source: "0x0100 0xc0000001  load
+	// #1 R0" becomes "0x0100 : load #1 R0", a label line labels the word
+	// after it.
+	static String source(String dump) {
+		StringBuilder sb = new StringBuilder();
+		String label = null;
+		for (String line : dump.split("\n")) {
+			if (line.endsWith(":")) {
+				label = line.substring(0, line.length() - 1);
+				continue;
+			}
+			sb.append(line.substring(0, 6)).append(" :\n");
+			if (label != null)
+				sb.append(label).append(" : ");
+			sb.append(line.substring(19)).append('\n');
+			label = null;
+		}
+		return sb.toString();
+	}
+
+	static String dump(Simulate sim) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new Disassembler(sim.memory).dump(out);
+		return out.toString("US-ASCII");
+	}
+
+	@Test
+	public void testUnitRoundTrip() throws MemFaultException, ParseException,
+			IOException {
+		Simulate sim = new Simulate(true, false, false);
+		Assemble.assemble(PROGRAM, sim);
+		String dump = dump(sim);
+
+		Simulate again = new Simulate(true, false, false);
+		Assemble.assemble(source(dump), again);
+		for (int i = 0; i < Memory.addressSize; i++)
+			assertEquals(sim.memory.get(i), again.memory.get(i));
+		assertEquals(dump, dump(again));
+	}
+
+	// the bits of a word the operands of the form are taken from
+	static int operandBits(int form) {
+		switch (form) {
+		case Disassembler.R1R2R3:
+		case Disassembler.ROTREG:
+			return 0x0fff0000;
+		case Disassembler.R2R3:
+			return 0x00ff0000;
+		case Disassembler.ADDR:
+			return 0x0000ffff;
+		case Disassembler.BIT:
+		case Disassembler.R3:
+			return 0x000f0000;
+		case Disassembler.ROTIMM:
+			return 0x00ff001f;
+		case Disassembler.R3ADDR:
+		case Disassembler.IMMR3:
+		case Disassembler.ADDRR3:
+			return 0x000fffff;
+		case Disassembler.R2DISPR3:
+			return 0x00ffffff;
+		case Disassembler.R2ADDR:
+			return 0x00f0ffff;
+		default:
+			return 0;
+		}
+	}
+
+	@Test
+	public void testUnitEveryOp() throws MemFaultException, ParseException {
+		Disassembler dis = new Disassembler(null);
+		for (Disassembler.Op op : Disassembler.OPS) {
+			// R1, R3 and R2 (IM as a flag) in the register fields, and a
+			// negative displacement or an address
+			int word = op.match | (operandBits(op.form) & 0x0132abcd);
+			Simulate sim = new Simulate(true, false, false);
+			Assemble.assemble("0x0100 : " + dis.disassemble(word), sim);
+			assertEquals(dis.disassemble(word), word, sim.memory.get(0x0100));
+		}
+	}
+}
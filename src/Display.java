@@ -0,0 +1,129 @@
+/*
+rPeanut - is a simple simulator of the rPeANUt computer.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+// The display controller, mapped at 0xFF30 - 0xFF33:
+//   0xFF30 page    - the frame buffer shown, 0 for 0x7C40 (the default) or
+//                    1 for the back page at 0x7880
+//   0xFF31 control - bit 0 set enables the vertical blank interrupt
+//                    (vector 7)
+//   0xFF32 frames  - the number of vertical blanks so far (read only)
+//   0xFF33 period  - instructions between vertical blanks
+// A program can draw into the page that isn't shown and flip to it with one
+// store, ideally from the vertical blank interrupt.
+public class Display implements Device {
+	static final int START = 0xFF30;
+	static final int END = 0xFF33;
+
+	static final int PAGE = 0;
+	static final int CONTROL = 1;
+	static final int FRAMES = 2;
+	static final int PERIOD = 3;
+
+	static final int SCREENWORDS = Screen.wordsPerLine * Simulate.SCREENHEIGHT;
+	static final int PAGES[] = { Simulate.SCREENSTART,
+			Simulate.SCREENSTART - SCREENWORDS };
+
+	static final int DEFAULTPERIOD = 10000;
+
+	Simulate sim;
+	int page;
+	boolean interrupt;
+	int frames;
+	int period;
+
+	private int nextblank;
+
+	public Display(Simulate sim) {
+		this.sim = sim;
+		reset();
+	}
+
+	public void reset() {
+		setPage(0);
+		interrupt = false;
+		frames = 0;
+		period = DEFAULTPERIOD;
+		nextblank = sim.count + period;
+		sim.schedule(nextblank);
+	}
+
+	@Override
+	public int read(int add) {
+		switch (add - START) {
+		case PAGE:
+			return page;
+		case CONTROL:
+			return interrupt ? 1 : 0;
+		case FRAMES:
+			return frames;
+		case PERIOD:
+			return period;
+		default:
+			return 0;
+		}
+	}
+
+	@Override
+	public void write(int add, int value) {
+		switch (add - START) {
+		case PAGE:
+			setPage(value & 1);
+			break;
+		case CONTROL:
+			interrupt = (value & 1) != 0;
+			break;
+		case PERIOD:
+			period = Math.max(1, value);
+			nextblank = sim.count + period;
+			sim.schedule(nextblank);
+			break;
+		default:
+			break;
+		}
+	}
+
+	private void setPage(int p) {
+		page = p;
+		sim.memory.setScreenBase(PAGES[p]);
+	}
+
+	// for Snapshot, which keeps the display's state as it is visible
+	int nextBlank() {
+		return nextblank;
+	}
+
+	void restore(int p, boolean interrupt, int frames, int period,
+			int nextblank) {
+		setPage(p & 1);
+		this.interrupt = interrupt;
+		this.frames = frames;
+		this.period = Math.max(1, period);
+		this.nextblank = nextblank;
+		sim.schedule(nextblank);
+	}
+
+	// called by the simulator when a scheduled event is due
+	public void event() {
+		if (sim.count >= nextblank) {
+			frames++;
+			nextblank = sim.count + period;
+			if (interrupt)
+				sim.raiseInterrupt(Simulate.VBLANKINT);
+		}
+		sim.schedule(nextblank);
+	}
+}
@@ -0,0 +1,226 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageOutputStream;
+
+/*
+rPeanut - is a simple simulator of the rPeANUt computer.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+// Records the frame buffer while a program runs from the command line
+// (-record). A frame is taken every "every" instructions, or, if every is 0,
+// at each vertical blank or page flip (see Display) if the screen has changed
+// since the last frame, so the half drawn screens in between are left out.
+// The CPU thread only copies the frame buffer words into a bounded queue. A
+// background thread turns them into images and writes them, either as an
+// animated GIF if the file ends in .gif, or as a numbered PNG for each frame
+// otherwise (out.png becomes out00000.png, out00001.png, ...). When the queue
+// is full the CPU waits, so no frame is ever dropped, unless the writer has
+// failed, in which case its error is thrown.
+public class FrameRecorder implements Runnable {
+	static final int QUEUESIZE = 64;
+	static final long PUTWAIT = 100; // ms between checks the writer is alive
+	static final int WORDS = Screen.wordsPerLine * Simulate.SCREENHEIGHT;
+	private static final int[] END = new int[0];
+
+	static final IndexColorModel BLACKWHITE = new IndexColorModel(1, 2,
+			new byte[] { 0, -1 }, new byte[] { 0, -1 }, new byte[] { 0, -1 });
+
+	Simulate sim;
+	File file;
+	int every;
+	int delay; // between GIF frames in ms
+
+	private BlockingQueue<int[]> queue = new ArrayBlockingQueue<int[]>(QUEUESIZE);
+	private Thread thread;
+	private int laststamp = -1;
+	private int lastcount;
+	private int lastframes, lastpage; // the display's at the last look
+	private int frames;
+	private volatile IOException error;
+
+	public FrameRecorder(Simulate sim, File file, int every, int delay) {
+		this.sim = sim;
+		this.file = file;
+		this.every = every;
+		this.delay = delay;
+	}
+
+	public void start() throws IOException {
+		thread = new Thread(this, "FrameRecorder");
+		thread.start();
+		lastframes = sim.display.frames;
+		lastpage = sim.display.page;
+		capture(); // the first frame
+	}
+
+	// called after each instruction
+	public void step() throws IOException {
+		if (every > 0) {
+			if (sim.count - lastcount >= every)
+				capture();
+		} else if (sim.display.frames != lastframes
+				|| sim.display.page != lastpage) {
+			lastframes = sim.display.frames;
+			lastpage = sim.display.page;
+			if (sim.memory.screenstamp != laststamp)
+				capture();
+		}
+	}
+
+	private void capture() throws IOException {
+		laststamp = sim.memory.screenstamp;
+		lastcount = sim.count;
+		int words[] = new int[WORDS];
+		int base = sim.memory.screenbase;
+		for (int i = 0; i < WORDS; i++)
+			words[i] = sim.memory.value(base + i);
+		put(words);
+	}
+
+	// waits for room, but not on a writer that has stopped
+	private void put(int words[]) throws IOException {
+		try {
+			while (!queue.offer(words, PUTWAIT, TimeUnit.MILLISECONDS)) {
+				if (!thread.isAlive())
+					break;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (error != null)
+			throw error;
+		if (!thread.isAlive() && words != END)
+			throw new IOException("the frame recorder has stopped");
+	}
+
+	// Takes a last frame if the screen has changed, then waits for all the
+	// frames to be written.
+	public void finish() throws IOException {
+		if (sim.memory.screenstamp != laststamp)
+			capture();
+		put(END);
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (error != null)
+			throw error;
+	}
+
+	@Override
+	public void run() {
+		boolean gif = file.getName().toLowerCase().endsWith(".gif");
+		ImageWriter writer = null;
+		ImageOutputStream out = null;
+		BufferedImage image = new BufferedImage(Simulate.SCREENWIDTH,
+				Simulate.SCREENHEIGHT, BufferedImage.TYPE_BYTE_BINARY, BLACKWHITE);
+		byte row[] = new byte[Simulate.SCREENWIDTH];
+		try {
+			if (gif) {
+				file.delete();
+				writer = ImageIO.getImageWritersBySuffix("gif").next();
+				out = ImageIO.createImageOutputStream(file);
+				writer.setOutput(out);
+				writer.prepareWriteSequence(null);
+			}
+			while (true) {
+				int words[] = queue.take();
+				if (words == END)
+					break;
+				for (int y = 0; y < Simulate.SCREENHEIGHT; y++) {
+					for (int x = 0; x < Simulate.SCREENWIDTH; x++)
+						row[x] = (byte) ((words[y * Screen.wordsPerLine + (x >> 5)] >> (x & 31)) & 1);
+					image.getRaster().setDataElements(0, y, Simulate.SCREENWIDTH, 1, row);
+				}
+				if (gif) {
+					writer.writeToSequence(new IIOImage(image, null,
+							gifMetadata(writer, image, frames == 0)), null);
+				} else {
+					ImageIO.write(image, "png", frameFile(frames));
+				}
+				frames++;
+			}
+			if (gif) {
+				writer.endWriteSequence();
+				out.close();
+			}
+		} catch (IOException e) {
+			error = e;
+		} catch (RuntimeException e) {
+			error = new IOException(e);
+		} catch (InterruptedException e) {
+		}
+	}
+
+	// out.png -> out00012.png
+	File frameFile(int n) {
+		String name = file.getPath();
+		int dot = name.lastIndexOf('.');
+		if (dot <= name.lastIndexOf(File.separatorChar))
+			dot = name.length();
+		return new File(String.format("%s%05d%s", name.substring(0, dot), n,
+				name.substring(dot)));
+	}
+
+	// The frame delay, and on the first frame the loop forever extension.
+	private IIOMetadata gifMetadata(ImageWriter writer, BufferedImage image,
+			boolean first) throws IOException {
+		IIOMetadata md = writer.getDefaultImageMetadata(
+				ImageTypeSpecifier.createFromRenderedImage(image), null);
+		String format = md.getNativeMetadataFormatName();
+		IIOMetadataNode root = (IIOMetadataNode) md.getAsTree(format);
+
+		IIOMetadataNode gce = child(root, "GraphicControlExtension");
+		gce.setAttribute("disposalMethod", "none");
+		gce.setAttribute("userInputFlag", "FALSE");
+		gce.setAttribute("transparentColorFlag", "FALSE");
+		gce.setAttribute("transparentColorIndex", "0");
+		gce.setAttribute("delayTime", Integer.toString(Math.max(1, delay / 10)));
+
+		if (first) {
+			IIOMetadataNode app = new IIOMetadataNode("ApplicationExtension");
+			app.setAttribute("applicationID", "NETSCAPE");
+			app.setAttribute("authenticationCode", "2.0");
+			app.setUserObject(new byte[] { 1, 0, 0 });
+			child(root, "ApplicationExtensions").appendChild(app);
+		}
+		md.setFromTree(format, root);
+		return md;
+	}
+
+	private static IIOMetadataNode child(IIOMetadataNode node, String name) {
+		for (int i = 0; i < node.getLength(); i++) {
+			if (node.item(i).getNodeName().equals(name))
+				return (IIOMetadataNode) node.item(i);
+		}
+		IIOMetadataNode n = new IIOMetadataNode(name);
+		node.appendChild(n);
+		return n;
+	}
+}
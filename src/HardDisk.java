@@ -1,3 +1,10 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
 /*
 rPeanut - is a simple simulator of the rPeANUt computer.
 Copyright (C) 2012  Joshua Worth
@@ -16,6 +23,210 @@ You should have received a copy of the GNU General Public License
 along with this program.  If not, see <http://www.gnu.org/licenses/>.
 */
 
-public class HardDisk {
-	
+// A block device backed by an image file, mapped at 0xFF20 - 0xFF25:
+//   0xFF20 command - writing starts a transfer, bit 8 set asks for an
+//                    interrupt (vector 6) when it completes
+//                    1 read sectors from the disk into memory
+//                    2 write sectors from memory to the disk
+//   0xFF21 status  - bit 0 busy, bit 1 done, bit 2 error
+//   0xFF22 sector  - the first sector of the transfer
+//   0xFF23 address - the memory address of the transfer
+//   0xFF24 count   - the number of sectors to transfer
+//   0xFF25 size    - the number of sectors on the disk (read only)
+// A sector is SECTORSIZE words, stored big endian in the image. Transfers
+// take seektime instructions for each track the head moves plus
+// transfertime instructions for each sector. The CPU keeps running while a
+// transfer is under way, the copy is done when it completes, so a run
+// takes the same number of instructions every time.
+public class HardDisk implements Device {
+	static final int START = 0xFF20;
+	static final int END = 0xFF25;
+
+	static final int COMMAND = 0;
+	static final int STATUS = 1;
+	static final int SECTOR = 2;
+	static final int ADDRESS = 3;
+	static final int COUNT = 4;
+	static final int SIZE = 5;
+
+	static final int READ = 1;
+	static final int WRITE = 2;
+
+	static final int INTBIT = 1 << 8;
+
+	static final int BUSY = 1;
+	static final int DONE = 2;
+	static final int ERROR = 4;
+
+	static final int SECTORSIZE = 128; // words
+	static final int SECTORSPERTRACK = 32;
+	static final int DEFAULTSECTORS = 2048; // a 1MB image
+
+	Simulate sim;
+
+	int seektime = 200;
+	int transfertime = 20;
+
+	int sector, address, count;
+	int status;
+
+	private RandomAccessFile file;
+	private IntBuffer image;
+	private MappedByteBuffer mapped;
+	private int sectors;
+	private int track;
+
+	// the transfer under way
+	private int pendop, pendfirst, pendadd, pendcount;
+	private boolean pendinterrupt;
+	private int doneat;
+
+	public HardDisk(Simulate sim) {
+		this.sim = sim;
+		sectors = 0;
+	}
+
+	// Maps the image file, it is created with DEFAULTSECTORS sectors if it
+	// is empty.
+	public void open(File f) throws IOException {
+		close();
+		file = new RandomAccessFile(f, "rw");
+		if (file.length() == 0)
+			file.setLength((long) DEFAULTSECTORS * SECTORSIZE * 4);
+		sectors = (int) (file.length() / (SECTORSIZE * 4));
+		mapped = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+				(long) sectors * SECTORSIZE * 4);
+		image = mapped.asIntBuffer();
+	}
+
+	public void close() throws IOException {
+		if (file != null) {
+			mapped.force();
+			file.close();
+			file = null;
+			image = null;
+			mapped = null;
+			sectors = 0;
+		}
+	}
+
+	public void reset() {
+		sector = 0;
+		address = 0;
+		count = 0;
+		status = 0;
+		track = 0;
+	}
+
+	@Override
+	public int read(int add) {
+		switch (add - START) {
+		case STATUS:
+			return status;
+		case SECTOR:
+			return sector;
+		case ADDRESS:
+			return address;
+		case COUNT:
+			return count;
+		case SIZE:
+			return sectors;
+		default:
+			return 0;
+		}
+	}
+
+	@Override
+	public void write(int add, int value) {
+		switch (add - START) {
+		case COMMAND:
+			start(value);
+			break;
+		case SECTOR:
+			sector = value;
+			break;
+		case ADDRESS:
+			address = value;
+			break;
+		case COUNT:
+			count = value;
+			break;
+		default:
+			break;
+		}
+	}
+
+	private void start(int command) {
+		int op = command & 0xff;
+		if (status == BUSY)
+			return;
+		boolean interrupt = (command & INTBIT) != 0;
+		// in long, as the registers may hold anything
+		if ((op != READ && op != WRITE) || image == null || sector < 0
+				|| count < 0 || (long) sector + count > sectors || address < 0
+				|| address + (long) count * SECTORSIZE > Memory.addressSize) {
+			status = ERROR | DONE;
+			if (interrupt)
+				sim.raiseInterrupt(Simulate.DISKINT);
+			return;
+		}
+
+		int newtrack = sector / SECTORSPERTRACK;
+		long latency = (long) Math.abs(newtrack - track) * seektime
+				+ (long) count * transfertime;
+		track = (sector + count) / SECTORSPERTRACK;
+		pendop = op;
+		pendfirst = sector;
+		pendadd = address;
+		pendcount = count;
+		pendinterrupt = interrupt;
+		status = BUSY;
+		if (latency <= 0) {
+			complete();
+		} else {
+			doneat = (int) Math.min((long) sim.count + latency, Integer.MAX_VALUE);
+			sim.schedule(doneat);
+		}
+	}
+
+	// called by the simulator when a scheduled event is due
+	public void event() {
+		if (status == BUSY) {
+			if (sim.count >= doneat) {
+				complete();
+			} else {
+				sim.schedule(doneat);
+			}
+		}
+	}
+
+	private void complete() {
+		int s = DONE;
+		try {
+			transfer(pendop, pendfirst, pendadd, pendcount);
+		} catch (MemFaultException e) {
+			s |= ERROR;
+		} catch (RuntimeException e) {
+			s |= ERROR;
+		}
+		status = s;
+		if (pendinterrupt)
+			sim.raiseInterrupt(Simulate.DISKINT);
+	}
+
+	private void transfer(int op, int first, int add, int n)
+			throws MemFaultException {
+		Memory mem = sim.memory;
+		int base = first * SECTORSIZE;
+		int words = n * SECTORSIZE;
+		if (op == READ) {
+			for (int i = 0; i < words; i++) {
+				mem.set(add + i, image.get(base + i));
+			}
+		} else {
+			for (int i = 0; i < words; i++) {
+				image.put(base + i, mem.get(add + i, false));
+			}
+		}
+	}
 }
@@ -0,0 +1,193 @@
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseMotionAdapter;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import javax.swing.JButton;
+import javax.swing.JComboBox;
+import javax.swing.JComponent;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.Timer;
+
+/*
+rPeanut - is a simple simulator of the rPeANUt computer.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+// A picture of the whole address space, one pixel a word, WIDTH words to a
+// row, coloured by how often each word has been accessed. It is drawn from
+// a copy of the counts taken FPS times a second while the window is open.
+// "All" shows reads in green, writes in red and fetches in blue.
+public class HeatMap extends JComponent implements ActionListener {
+	static final int WIDTH = 256;
+	static final int HEIGHT = Memory.addressSize / WIDTH;
+	static final int FPS = 10;
+
+	static final String VIEWS[] = { "All", "Reads", "Writes", "Fetches",
+			"Cache misses" };
+	static final String ZOOMS[] = { "x1", "x2", "x3", "x4" };
+
+	AccessCounts counts;
+	private AccessCounts copy = new AccessCounts();
+	private BufferedImage image;
+	private int pixels[];
+	private int view;
+	private int zoom = 2;
+
+	private JFrame frame;
+	private Timer timer;
+	private JLabel info;
+
+	public HeatMap(AccessCounts counts) {
+		this.counts = counts;
+		image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		timer = new Timer(1000 / FPS, this);
+		addMouseMotionListener(new MouseMotionAdapter() {
+			@Override
+			public void mouseMoved(MouseEvent e) {
+				int add = (e.getY() / zoom) * WIDTH + e.getX() / zoom;
+				if (add >= 0 && add < Memory.addressSize && e.getX() / zoom < WIDTH)
+					info.setText(String.format(
+							"0x%04x  reads %d  writes %d  fetches %d  misses %d",
+							add, copy.reads[add], copy.writes[add],
+							copy.fetches[add], copy.misses[add]));
+			}
+		});
+		resize();
+	}
+
+	public void setVisible(boolean visible, Component relative) {
+		if (frame == null)
+			createWindow();
+		if (visible) {
+			frame.setLocationRelativeTo(relative);
+			timer.start();
+		} else {
+			timer.stop();
+		}
+		frame.setVisible(visible);
+	}
+
+	private void createWindow() {
+		frame = new JFrame("Memory heat map");
+		final JComboBox<String> viewBox = new JComboBox<String>(VIEWS);
+		viewBox.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				view = viewBox.getSelectedIndex();
+				render();
+			}
+		});
+		final JComboBox<String> zoomBox = new JComboBox<String>(ZOOMS);
+		zoomBox.setSelectedIndex(zoom - 1);
+		zoomBox.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				zoom = zoomBox.getSelectedIndex() + 1;
+				resize();
+			}
+		});
+		JButton clear = new JButton("Clear");
+		clear.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				counts.clear();
+				render();
+			}
+		});
+		JPanel controls = new JPanel();
+		controls.add(viewBox);
+		controls.add(zoomBox);
+		controls.add(clear);
+		info = new JLabel(" ");
+
+		frame.getContentPane().add(controls, BorderLayout.NORTH);
+		frame.getContentPane().add(new JScrollPane(this), BorderLayout.CENTER);
+		frame.getContentPane().add(info, BorderLayout.SOUTH);
+		frame.addWindowListener(new WindowAdapter() {
+			@Override
+			public void windowClosing(WindowEvent e) {
+				timer.stop();
+			}
+		});
+		frame.pack();
+	}
+
+	private void resize() {
+		setPreferredSize(new Dimension(WIDTH * zoom, HEIGHT * zoom));
+		revalidate();
+		repaint();
+	}
+
+	@Override
+	public void actionPerformed(ActionEvent e) {
+		render();
+	}
+
+	// Takes a copy of the counts and colours each word on a log scale
+	// against the largest count shown.
+	private void render() {
+		counts.copyTo(copy);
+		if (view == 0) {
+			int rs = scale(copy.reads), ws = scale(copy.writes), fs = scale(copy.fetches);
+			for (int i = 0; i < pixels.length; i++) {
+				pixels[i] = (level(copy.writes[i], ws) << 16)
+						| (level(copy.reads[i], rs) << 8)
+						| level(copy.fetches[i], fs);
+			}
+		} else {
+			int c[] = view == 1 ? copy.reads : view == 2 ? copy.writes
+					: view == 3 ? copy.fetches : copy.misses;
+			int s = scale(c);
+			for (int i = 0; i < pixels.length; i++) {
+				int l = level(c[i], s);
+				// black through red to yellow
+				pixels[i] = l < 128 ? (l * 2) << 16 : 0xff0000 | ((l - 128) * 2) << 8;
+			}
+		}
+		repaint();
+	}
+
+	private static int log2(int v) {
+		return 32 - Integer.numberOfLeadingZeros(v);
+	}
+
+	private static int scale(int c[]) {
+		int max = 0;
+		for (int i = 0; i < c.length; i++)
+			max = Math.max(max, c[i]);
+		return Math.max(1, log2(max));
+	}
+
+	private static int level(int count, int scale) {
+		return count == 0 ? 0 : Math.min(255, 32 + log2(count) * 223 / scale);
+	}
+
+	@Override
+	protected void paintComponent(Graphics g) {
+		g.drawImage(image, 0, 0, WIDTH * zoom, HEIGHT * zoom, null);
+	}
+}
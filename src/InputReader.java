@@ -0,0 +1,128 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+rPeanut - is a simple simulator of the rPeANUt computer.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+// The terminal input in term mode, a ring buffer with one writer and one
+// reader (the CPU) so no locks are needed, and available() is just the
+// difference of two volatile counts rather than a system call on every
+// step. While the stream says it has bytes ready, as a redirected file
+// does to its end, the ring is filled a block at a time on the CPU thread
+// whenever it runs dry, so the program sees the same input on the same step
+// every run however long the file is. Once the stream has nothing ready (a
+// terminal or a pipe waiting on its writer) a daemon thread takes over the
+// reading. Nothing is read, nor the ring allocated, until the input is
+// first looked at, as a fork that never reads mustn't steal stdin.
+public class InputReader extends InputStream implements Runnable {
+	static final int SIZE = 1 << 16; // a power of two
+	static final int BLOCK = 4096;
+	static final long WAIT = 50000; // ns to sleep when full or empty
+
+	private byte ring[];
+	private volatile long head; // bytes put in the ring
+	private volatile long tail; // bytes taken out by read()
+	private volatile boolean eof;
+
+	private InputStream in;
+	private Thread thread;
+	private byte block[];
+
+	public InputReader(InputStream in) {
+		this.in = in;
+	}
+
+	// Called on the CPU thread when the ring is empty, reads what the
+	// stream has ready or else hands the reading to the thread.
+	private void fill() {
+		if (thread != null)
+			return;
+		if (ring == null) {
+			ring = new byte[SIZE];
+			block = new byte[BLOCK];
+		}
+		try {
+			int n = Math.min(in.available(), SIZE);
+			while (n > 0) {
+				int m = in.read(block, 0, Math.min(n, BLOCK));
+				if (m < 0)
+					break;
+				put(m);
+				n -= m;
+			}
+			if (head != tail)
+				return;
+		} catch (IOException e) {
+		}
+		thread = new Thread(this, "InputReader");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	// copies n bytes of block into the ring, waiting while it is full
+	private void put(int n) {
+		int off = 0;
+		while (off < n) {
+			long h = head;
+			int free = SIZE - (int) (h - tail);
+			if (free == 0) {
+				LockSupport.parkNanos(WAIT);
+				continue;
+			}
+			int m = Math.min(free, n - off);
+			for (int i = 0; i < m; i++)
+				ring[(int) (h + i) & (SIZE - 1)] = block[off + i];
+			head = h + m; // publishes the bytes
+			off += m;
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			int n;
+			while ((n = in.read(block)) >= 0)
+				put(n);
+		} catch (IOException e) {
+		}
+		eof = true;
+	}
+
+	@Override
+	public int available() {
+		if (head == tail)
+			fill();
+		return (int) (head - tail);
+	}
+
+	// blocks until there is a byte, -1 at the end of the input
+	@Override
+	public int read() {
+		if (head == tail)
+			fill();
+		long t = tail;
+		while (head == t) {
+			if (eof && head == t)
+				return -1;
+			LockSupport.parkNanos(WAIT);
+		}
+		int b = ring[(int) t & (SIZE - 1)] & 0xff;
+		tail = t + 1;
+		return b;
+	}
+}
@@ -1,4 +1,9 @@
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+
 import javax.swing.JFrame;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 
 
 /*
@@ -20,28 +25,48 @@ along with this program.  If not, see <http://www.gnu.org/licenses/>.
 */
 
 
-public class JFScreen implements Runnable {
+// The window for -screen. A Swing timer redraws it fps times a second, on
+// the event thread, and only if the frame buffer has been written since the
+// last frame, so the CPU thread never waits on it.
+public class JFScreen implements ActionListener {
+	static final int DEFAULTFPS = 25;
+	static final int MAXFPS = 60;
+
 	Simulate sim;
 	JFrame jf;
 	Screen screen;
-	public JFScreen(Simulate simulate) {
+	Timer timer;
+	private int lastframe = -1; // screenstamp when last drawn
+
+	public JFScreen(Simulate simulate, int fps) {
 		sim = simulate;
-		jf = new JFrame();
-		jf.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-		screen = new Screen(sim.memory);
-		jf.getContentPane().add(screen);
-		jf.pack();
-		jf.setVisible(true);
+		fps = Math.max(1, Math.min(MAXFPS, fps));
+		timer = new Timer(1000 / fps, this);
+		timer.setCoalesce(true);
 	}
 
-	@Override
-	public void run() {
-		while (true) {
-		    screen.refreshAll();
-		    try {
-				Thread.sleep(1000/25);
-			} catch (InterruptedException e) {
+	// shows the window and starts the timer on the event thread
+	public void start() {
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				jf = new JFrame();
+				jf.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+				screen = new Screen(sim.memory);
+				jf.getContentPane().add(screen);
+				jf.pack();
+				jf.setVisible(true);
+				timer.start();
 			}
+		});
+	}
+
+	@Override
+	public void actionPerformed(ActionEvent e) {
+		int stamp = sim.memory.screenstamp;
+		if (stamp != lastframe) {
+			lastframe = stamp;
+			screen.refreshAll();
 		}
 	}
 }
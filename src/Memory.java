@@ -1,5 +1,12 @@
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
 import javax.swing.table.AbstractTableModel;
 
 /*
@@ -27,57 +34,127 @@ public class Memory extends AbstractTableModel {
 
 	static final int addressSize = 1 << 15;
 
-	class Cell {
-		public int value;
-		public int offset;
-		public int mempos;
-		public int profilecount;
-		public boolean bp;
-		public String label;
-		public String dump;
-	}
-	
-	private Cell memory[];
-	
+	// Memory is kept in pages of PAGESIZE words. Pages that have never been
+	// written share ZEROPAGE, a page is only allocated when it is first
+	// written with something other than zero.
+	static final int PAGEBITS = 8;
+	static final int PAGESIZE = 1 << PAGEBITS;
+	static final int PAGEMASK = PAGESIZE - 1;
+	static final int numPages = addressSize >> PAGEBITS;
+	static final int ZEROPAGE[] = new int[PAGESIZE];
+
+	private int pages[][];
+	private boolean owned[]; // false if the page may be shared with a snapshot
+
+	// The debugging information is kept beside the values rather than in an
+	// object for each word, labels and disassembly are only held for the
+	// few words that have them.
+	private int profilecount[]; // null until profiling is first turned on
+	private BitSet bp;
+	private HashMap<Integer, String> labels;
+
+	// When set every write to memory is also written to this buffer, which
+	// maps a file other processes can watch (see share()).
+	private IntBuffer shared;
+
+	// The address space is split into 256 pages, the pages above RAM are
+	// either unmapped (null) or belong to a device.
+	private Device pagetable[];
+
+	// The rows of the memory table, only needed once it is shown. A word
+	// is shown if it or one of the two words before it is not zero, or it
+	// is at or just after the PC. The shown words are kept in a bit set
+	// with a Fenwick tree over it to turn rows into addresses and back, and
+	// are updated as words change between zero and not zero.
+	private BitSet shown;
+	private int tree[];
+	private int rowpc; // the PC the rows were worked out for
+
+	// The text of the address and data columns, formatted the first time
+	// a word is drawn. The data and disassembly are kept with the value they
+	// were formatted from and only used while the word still holds it, as
+	// the simulator thread writes words while the event thread draws them.
+	private String addrtext[];
+	private String datatext[];
+	private String dumptext[]; // the disassembly
+	private int datavalue[], dumpvalue[];
+	private boolean dumpsvalid; // cleared when labels change
+	private Disassembler disassembler = new Disassembler(this);
+	private final char hexbuf[] = new char[10];
+
+	// The words written (or profiled) since the table was last told, and
+	// whether the set of shown rows has changed since then. The simulator
+	// thread marks words under dirtylock while the event thread swaps in
+	// the spare set to read the marks, so none are lost in between.
+	private BitSet dirty, spare;
+	private final Object dirtylock = new Object();
+	private boolean rowschanged;
+	static final int MAXRANGES = 32;
+	private static final char HEX[] = "0123456789abcdef".toCharArray();
+
 	private int count;
-	private boolean offsetwrong;
+	private boolean offsetwrong; // set when all the rows need working out
+	private boolean profiling;
+
+	// Each write to the frame buffer stamps its scan line with the next
+	// value of screenstamp, so a Screen can redraw just the lines stamped
+	// since it last looked. The line is stamped before screenstamp is
+	// bumped, so a Screen on another thread that sees the new screenstamp
+	// also sees the word and its stamp.
+	volatile int screenstamp;
+	int screenbase = Simulate.SCREENSTART; // the page shown, see Display
+	int linestamp[];
 	Simulate simulate;
-	
-	static final boolean profile = true;
 
 	public Memory(Simulate sim) {
 		D.p("newmem " + count);
-		memory = new Cell[addressSize];
-		for (int i = 0; i < memory.length; i++) {
-			memory[i] = new Cell();
-		}
+		pages = new int[numPages][];
+		pagetable = new Device[0x10000 >> PAGEBITS];
+		owned = new boolean[numPages];
+		bp = new BitSet(addressSize);
+		labels = new HashMap<Integer, String>();
+		Arrays.fill(pages, ZEROPAGE);
 		count = 0;
 		simulate = sim;
+		linestamp = new int[Simulate.SCREENHEIGHT];
 	}
 
 	public void set(int add, int value) throws MemFaultException {
-
-		if (add == 0xFFF0) {
-			if (simulate.term) {
-				System.out.print(String.format("%c", 0xFF & value));
-				System.out.flush();
-			} else {
-				simulate.terminalAppend(value);
+		if ((add & ~(addressSize - 1)) != 0) {
+			device(add).write(add, value);
+			return;
+		}
+		int p = add >> PAGEBITS;
+		int page[] = pages[p];
+		if (!owned[p]) {
+			if (page == ZEROPAGE && value == 0)
+				return;
+			page = pages[p] = (page == ZEROPAGE ? new int[PAGESIZE] : page.clone());
+			owned[p] = true;
+		}
+		int old = page[add & PAGEMASK];
+		page[add & PAGEMASK] = value;
+		if (dirty != null)
+			synchronized (dirtylock) {
+				dirty.set(add);
 			}
-		} else if (add == 0xFFF2) {
-			simulate.terminalCharInterrupt = (value & 0x0001) == 0x0001;
-		} else {
-			if (add < 0 || add > 0x7FFF)
-				throw new MemFaultException();
-			offsetwrong = true;
-			memory[add].value = value;
+		if (shown != null && (old == 0) != (value == 0))
+			updateRows(add, add + 2);
+		if (shared != null)
+			shared.put(add, value);
+		int off = add - screenbase;
+		if (off >= 0 && off < Display.SCREENWORDS) {
+			int stamp = screenstamp + 1;
+			linestamp[off / Screen.wordsPerLine] = stamp;
+			screenstamp = stamp;
 		}
 	}
 
 	public void setHighlight() {
 		int pc = simulate.PC.get();
-		if (pc >= 0 && pc < memory.length) {
-			int index = memory[simulate.PC.get()].mempos;
+		if (pc >= 0 && pc < addressSize && shown != null) {
+			checkRows();
+			int index = shown.get(pc) ? rank(pc) : -1;
 			if (index != -1 && index < simulate.memtable.getRowCount())
 				simulate.memtable.setRowSelectionInterval(index, index);
 		}
@@ -88,51 +165,143 @@ public class Memory extends AbstractTableModel {
 	}
 	
 	public int get(int add, boolean doprofile) throws MemFaultException {
-		if (doprofile && add >= 0 && add < memory.length) memory[add].profilecount++;
-		if (add == 0xFFF0) {
-			if (simulate.term) {
-				try {
-					if (System.in.available() > 0) {
-						int tchar = System.in.read();
-						return tchar;
-					} else {
-						return 0;
-					}
-				} catch (IOException e) {
-
-					return 0;
-				}
-			} else {
-				if (simulate.terminalChar.length() == 0) {
-					return 0;
-				} else {
-					int c = simulate.terminalChar.charAt(0);
-					simulate.terminalChar = simulate.terminalChar.substring(1);
-					return c;
-
+		if ((add & ~(addressSize - 1)) != 0)
+			return device(add).read(add);
+		if (doprofile && profiling) {
+			profilecount[add]++;
+			if (dirty != null)
+				synchronized (dirtylock) {
+					dirty.set(add);
 				}
-
-			}
 		}
-		if (add == 0xFFF1) {
-			if (simulate.term) {
-				try {
-					return (System.in.available() > 0 ? 0x0001 : 0x0000);
-				} catch (IOException e) {
-					return (0x0000);
+		return pages[add >> PAGEBITS][add & PAGEMASK];
+	}
 
-				}
+	// Maps the addresses start to end, which are above RAM, to the device.
+	// A range that covers whole pages goes straight into the page table,
+	// otherwise the page is split up word by word.
+	public void attach(int start, int end, Device device) {
+		if (start < addressSize || end > 0xFFFF || start > end)
+			throw new IllegalArgumentException("bad device range");
+		for (int add = start; add <= end; add++) {
+			int p = add >> PAGEBITS;
+			if ((add & PAGEMASK) == 0 && add + PAGEMASK <= end) {
+				pagetable[p] = device;
+				add += PAGEMASK;
 			} else {
-				return (simulate.terminalChar.length() > 0 ? 0x0001 : 0x0000);
+				if (!(pagetable[p] instanceof WordMap))
+					pagetable[p] = new WordMap();
+				((WordMap) pagetable[p]).words[add & PAGEMASK] = device;
 			}
 		}
+	}
 
-		if (add == 0xFFF2)
-			return (simulate.terminalCharInterrupt ? 0x0001 : 0x0000);
-		if (add < 0 || add > 0x7FFF)
+	private Device device(int add) throws MemFaultException {
+		Device d = (add & ~0xFFFF) == 0 ? pagetable[add >> PAGEBITS] : null;
+		if (d == null)
 			throw new MemFaultException();
-		
-		return memory[add].value;
+		return d;
+	}
+
+	// a page shared by several devices
+	private static class WordMap implements Device {
+		Device words[] = new Device[PAGESIZE];
+
+		@Override
+		public int read(int add) throws MemFaultException {
+			Device d = words[add & PAGEMASK];
+			if (d == null)
+				throw new MemFaultException();
+			return d.read(add);
+		}
+
+		@Override
+		public void write(int add, int value) throws MemFaultException {
+			Device d = words[add & PAGEMASK];
+			if (d == null)
+				throw new MemFaultException();
+			d.write(add, value);
+		}
+	}
+
+	// Maps the file, addressSize big endian words, and from then on keeps it
+	// a copy of memory. Reads still come from the pages so the simulation
+	// runs at the same speed, writes cost one more store.
+	void share(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(addressSize * 4L);
+			shared = raf.getChannel()
+					.map(FileChannel.MapMode.READ_WRITE, 0, addressSize * 4L)
+					.asIntBuffer();
+		} finally {
+			raf.close(); // the mapping stays valid
+		}
+		copyToShared();
+	}
+
+	private void copyToShared() {
+		if (shared == null)
+			return;
+		for (int p = 0; p < numPages; p++) {
+			shared.position(p << PAGEBITS);
+			shared.put(pages[p]);
+		}
+		shared.position(0);
+	}
+
+	// Returns the pages of memory so they can be kept by a snapshot. From
+	// now on both this memory and the snapshot copy a page before writing
+	// to it.
+	int[][] sharePages() {
+		Arrays.fill(owned, false);
+		return pages.clone();
+	}
+
+	// shows the frame buffer at base, which needs drawing from scratch
+	void setScreenBase(int base) {
+		if (base != screenbase) {
+			screenbase = base;
+			stampAll();
+		}
+	}
+
+	// every line of the screen needs redrawing
+	private void stampAll() {
+		stampLines(0, linestamp.length - 1);
+	}
+
+	// the lines from to to need redrawing, for devices drawn over the screen
+	void stampLines(int from, int to) {
+		int stamp = screenstamp + 1;
+		Arrays.fill(linestamp, from, to + 1, stamp);
+		screenstamp = stamp;
+	}
+
+	// Starts from pages kept by a snapshot, they are copied when written.
+	void usePages(int[][] snapshot) {
+		pages = snapshot.clone();
+		Arrays.fill(owned, false);
+		copyToShared();
+		offsetwrong = true;
+		stampAll();
+	}
+
+	// the addresses that have breakpoints
+	int[] breakpoints() {
+		int bps[] = new int[bp.cardinality()];
+		int n = 0;
+		for (int i = bp.nextSetBit(0); i >= 0; i = bp.nextSetBit(i + 1))
+			bps[n++] = i;
+		return bps;
+	}
+
+	void setBreakpoint(int add) {
+		bp.set(add);
+	}
+
+	int value(int add) {
+		return pages[add >> PAGEBITS][add & PAGEMASK];
 	}
 	
 	boolean inRange(int addr) {
@@ -142,15 +311,15 @@ public class Memory extends AbstractTableModel {
 	public void reset() {
 
 		count = 0;
-		offsetwrong = false;
-		for (int i = 0; i < addressSize; i++) {
-			memory[i].offset = 0;
-			memory[i].value = 0;
-			memory[i].profilecount = 0;
-			memory[i].label = null;
-			memory[i].dump = null;
-			memory[i].bp = false;
-		}
+		offsetwrong = true;
+		Arrays.fill(pages, ZEROPAGE);
+		Arrays.fill(owned, false);
+		if (profilecount != null)
+			Arrays.fill(profilecount, 0);
+		bp.clear();
+		labels.clear();
+		copyToShared();
+		stampAll();
 	}
 
 	@Override
@@ -161,8 +330,7 @@ public class Memory extends AbstractTableModel {
 	@Override
 	public int getRowCount() {
 
-		if (offsetwrong)
-			caloffset();
+		checkRows();
 
 		return count;
 	}
@@ -170,36 +338,61 @@ public class Memory extends AbstractTableModel {
 	@Override
 	public Object getValueAt(int r, int c) {
 
-		if (offsetwrong)
-			caloffset();
+		checkRows();
+		if (r < 0 || r >= count)
+			return null;
+		int add = select(r);
 		if (c == 0) {
-			return memory[memory[r].offset].bp;
+			return bp.get(add);
 		} else if (c == 1) {
-			return profile ? memory[memory[r].offset].profilecount : "";
+			return profiling ? profilecount[add] : "";
 		} else if (c == 3) {
-			return new Address(memory[r].offset);
-		} else if (c == 4 && r >= 0 && r < count) {
-			return new Word(memory[memory[r].offset].value);
-		} else if (c == 2 && memory[memory[r].offset].label != null) {
-			return memory[memory[r].offset].label;
-		} else if (c == 5 && memory[memory[r].offset].dump != null) {
-			return memory[memory[r].offset].dump;
+			String t = addrtext[add];
+			if (t == null)
+				t = addrtext[add] = hex(add, 4);
+			return t;
+		} else if (c == 4) {
+			int v = value(add);
+			String t = datatext[add];
+			if (t == null || datavalue[add] != v) {
+				t = datatext[add] = hex(v, 8);
+				datavalue[add] = v;
+			}
+			return t;
+		} else if (c == 2) {
+			return labels.get(add);
+		} else if (c == 5) {
+			if (!dumpsvalid) {
+				Arrays.fill(dumptext, null);
+				dumpsvalid = true;
+			}
+			int v = value(add);
+			String t = dumptext[add];
+			if (t == null || dumpvalue[add] != v) {
+				t = dumptext[add] = disassembler.disassemble(v);
+				dumpvalue[add] = v;
+			}
+			return t;
 		}
 		return null;
 	}
 	
 	// This is a breakpoint..., why is it called DB and not bp?
 	public boolean isDB(int col) {
-		return memory[memory[col].offset].bp;
+		checkRows();
+		return bp.get(select(col));
 	}
 	
 	public boolean isDBmem(int i) {
-		return i >=0 && i <= 0x7fff && memory[i].bp;
+		if (i < 0 || i > 0x7fff)
+			return false;
+		return bp.get(i);
 	}
 	
 	public void toggleDB(int col) {
-		memory[memory[col].offset].bp = !memory[memory[col].offset].bp;
-		this.fireTableDataChanged();
+		checkRows();
+		bp.flip(select(col));
+		this.fireTableRowsUpdated(col, col);
 	}
 	
 	@Override
@@ -207,114 +400,188 @@ public class Memory extends AbstractTableModel {
 		return c==0;
 	}
 
-	private void caloffset() {
+	// Tells the table what has changed since it was last told. Only if
+	// rows have come or gone does the whole table change, otherwise the
+	// rows written are updated, in runs of consecutive rows.
+	public void fireChanges() {
+		checkRows();
+		BitSet changed;
+		synchronized (dirtylock) {
+			changed = dirty;
+			dirty = spare;
+		}
+		fireChanges(changed);
+		changed.clear();
+		spare = changed;
+	}
+
+	private void fireChanges(BitSet changed) {
+		if (rowschanged) {
+			rowschanged = false;
+			fireTableDataChanged();
+			return;
+		}
+		int first = -1, last = -1, ranges = 0;
+		for (int i = changed.nextSetBit(0); i >= 0; i = changed.nextSetBit(i + 1)) {
+			if (!shown.get(i))
+				continue;
+			int row = rank(i);
+			if (first != -1 && row == last + 1) {
+				last = row;
+				continue;
+			}
+			if (first != -1) {
+				ranges++;
+				if (ranges >= MAXRANGES) {
+					// too scattered, one event covering them all is cheaper
+					last = rank(changed.length());
+					break;
+				}
+				fireTableRowsUpdated(first, last);
+			}
+			first = last = row;
+		}
+		if (first != -1)
+			fireTableRowsUpdated(first, Math.min(last, count - 1));
+	}
+
+	// Works out which words are shown from scratch.
+	private synchronized void caloffset() {
+		if (shown == null) {
+			shown = new BitSet(addressSize);
+			tree = new int[addressSize + 1];
+			addrtext = new String[addressSize];
+			datatext = new String[addressSize];
+			dumptext = new String[addressSize];
+			datavalue = new int[addressSize];
+			dumpvalue = new int[addressSize];
+			spare = new BitSet(addressSize);
+			synchronized (dirtylock) {
+				dirty = new BitSet(addressSize);
+			}
+		}
+		rowschanged = true;
+		Arrays.fill(datatext, null);
+		dumpsvalid = false;
+		rowpc = simulate.PC.get();
+		shown.clear();
+		Arrays.fill(tree, 0);
 		count = 0;
 		for (int i = 0; i < addressSize; i++) {
-			if (memory[i].value != 0 || i == simulate.PC.get() || i-1 == simulate.PC.get() || (i>0 && memory[i-1].value != 0)  || (i>1 && memory[i-2].value != 0)) {
-				memory[count].offset = i;
-				memory[i].mempos = count;
+			if (isShown(i)) {
+				shown.set(i);
+				tree[i + 1]++;
 				count++;
-			} else {
-				memory[i].mempos = -1;
 			}
+			int j = (i + 1) + ((i + 1) & -(i + 1));
+			if (j <= addressSize)
+				tree[j] += tree[i + 1];
 		}
-		
-		int i = 0;
-		while (i < addressSize) {
-			if ((memory[i].value & 0xF0000000) == 0x10000000) {
-				memory[i].dump = "add";
-			} else if ((memory[i].value & 0xF0000000) == 0x20000000) {
-				memory[i].dump = "sub";
-			} else if ((memory[i].value & 0xF0000000) == 0x30000000) {
-				memory[i].dump = "mult";
-			} else if ((memory[i].value & 0xF0000000) == 0x40000000) {
-				memory[i].dump = "div";
-			} else if ((memory[i].value & 0xF0000000) == 0x50000000) {
-				memory[i].dump = "mod";
-			} else if ((memory[i].value & 0xF0000000) == 0x60000000) {
-				memory[i].dump = "and";
-			} else if ((memory[i].value & 0xF0000000) == 0x70000000) {
-				memory[i].dump = "or";
-			}  else if ((memory[i].value & 0xF0000000) == 0x80000000) {
-				memory[i].dump = "xor";
-			} else if ((memory[i].value & 0xFF000000) == 0xA0000000) {
-				memory[i].dump = "neg";
-			} else if ((memory[i].value & 0xFF000000) == 0xA1000000) {
-				memory[i].dump = "not";
-			} else if ((memory[i].value & 0xFF000000) == 0xA2000000) {
-				memory[i].dump = "move";
-			} else if ((memory[i].value & 0xFFFF0000) == 0xA3000000) {
-				memory[i].dump = "call";
-			} else if ((memory[i].value & 0xFFFF0000) == 0xA3010000) {
-				memory[i].dump = "return";
-			} else if ((memory[i].value & 0xFFFF0000) == 0xA3020000) {
-				memory[i].dump = "trap";
-			} else if ((memory[i].value & 0xFFFF0000) == 0xA3020000) {
-				memory[i].dump = "trap";
-			} else if ((memory[i].value & 0xFFFF0000) == 0xA4000000) {
-				memory[i].dump = "jump";
-			} else if ((memory[i].value & 0xFFF00000) == 0xA4100000) {
-				memory[i].dump = "jumpz";
-			} else if ((memory[i].value & 0xFFF00000) == 0xA4200000) {
-				memory[i].dump = "jumpn";
-			} else if ((memory[i].value & 0xFFF00000) == 0xA4300000) {
-				memory[i].dump = "jumpnz";
-			} else if ((memory[i].value & 0xFFF00000) == 0xA5000000) {
-				memory[i].dump = "reset";
-			} else if ((memory[i].value & 0xFFF00000) == 0xA5100000) {
-				memory[i].dump = "set";
-			} else if ((memory[i].value & 0xFFF00000) == 0xA6000000) {
-				memory[i].dump = "push";
-			} else if ((memory[i].value & 0xFFF00000) == 0xA6100000) {
-				memory[i].dump = "pop";
-			} else if ((memory[i].value & 0xFF000000) == 0xB0000000) {
-				memory[i].dump = "rotate";
-			} else if ((memory[i].value & 0xF0000000) == 0xE0000000) {
-				memory[i].dump = "rotate";
-			} else if ((memory[i].value & 0xFFF00000) == 0xC0000000) {
-				memory[i].dump = "load #";
-			} else if ((memory[i].value & 0xFFF00000) == 0xC1000000) {
-				memory[i].dump = "load abs";
-			} else if ((memory[i].value & 0xFF000000) == 0xC2000000) {
-				memory[i].dump = "load indir";
-			} else if ((memory[i].value & 0xFF000000) == 0xC3000000) {
-				memory[i].dump = "load b+d";
-			} else if ((memory[i].value & 0xFF0F0000) == 0xD1000000) {
-				memory[i].dump = "store abs";
-			} else if ((memory[i].value & 0xFF000000) == 0xD2000000) {
-				memory[i].dump = "store indir";
-			} else if ((memory[i].value & 0xFF000000) == 0xD3000000) {
-				memory[i].dump = "store b+d";
-			} else if ((memory[i].value & 0xFFFFFFFF) == 0x00000000) {
-				memory[i].dump = "halt";
-			} else {
-				memory[i].dump = null;
+		offsetwrong = false;
+	}
+
+	// Brings the rows up to date with the PC, or works them out again if
+	// the whole of memory has changed.
+	private void checkRows() {
+		if (offsetwrong || shown == null) {
+			caloffset();
+			return;
+		}
+		int pc = simulate.PC.get();
+		if (pc != rowpc) {
+			int oldpc = rowpc;
+			rowpc = pc;
+			updateRows(oldpc, oldpc + 1);
+			updateRows(pc, pc + 1);
+		}
+	}
+
+	private boolean isShown(int i) {
+		return value(i) != 0 || i == rowpc || i - 1 == rowpc
+				|| (i > 0 && value(i - 1) != 0) || (i > 1 && value(i - 2) != 0);
+	}
+
+	// The table model asks for rows on the event thread while the simulator
+	// thread changes which words are shown, hence the lock.
+	private synchronized void updateRows(int from, int to) {
+		for (int i = Math.max(from, 0); i <= to && i < addressSize; i++) {
+			boolean s = isShown(i);
+			if (s != shown.get(i)) {
+				shown.set(i, s);
+				rowschanged = true;
+				int d = s ? 1 : -1;
+				count += d;
+				for (int j = i + 1; j <= addressSize; j += j & -j)
+					tree[j] += d;
 			}
-				
-			i++;
 		}
-		
-		offsetwrong = false;
 	}
 
-	public void setSymbol(int add, String label) {
-		if (memory[add].label == null) {
-			memory[add].label = "";
+	// the row of a shown address, the number of shown words before it
+	private synchronized int rank(int add) {
+		int n = 0;
+		for (int j = add; j > 0; j -= j & -j)
+			n += tree[j];
+		return n;
+	}
+
+	// the address of a row
+	private synchronized int select(int row) {
+		int pos = 0;
+		for (int step = addressSize; step > 0; step >>= 1) {
+			if (pos + step <= addressSize && tree[pos + step] <= row) {
+				pos += step;
+				row -= tree[pos];
+			}
 		}
-		memory[add].label += label + " ";
+		return pos;
 	}
 
-	public void resetProfile() {
-		count = 0;
-		for (int i = 0; i < addressSize; i++) {
-			memory[i].profilecount = 0;
+	// the same as Word.toString() and Address.toString(), without the
+	// formatter
+	private String hex(int v, int digits) {
+		hexbuf[0] = '0';
+		hexbuf[1] = 'x';
+		for (int i = digits + 1; i >= 2; i--) {
+			hexbuf[i] = HEX[v & 0xf];
+			v >>>= 4;
 		}
+		return new String(hexbuf, 0, digits + 2);
+	}
+
+	public void setSymbol(int add, String label) {
+		String l = labels.get(add);
+		labels.put(add, (l == null ? "" : l) + label + " ");
+		dumpsvalid = false;
+	}
+
+	// the first label of an address, or null
+	String label(int add) {
+		String l = labels.get(add);
+		return l == null ? null : l.substring(0, l.indexOf(' '));
+	}
+
+	public void setProfiling(boolean on) {
+		if (on && profilecount == null)
+			profilecount = new int[addressSize];
+		profiling = on;
+	}
+
+	public void resetProfile() {
+		if (profilecount != null)
+			Arrays.fill(profilecount, 0);
 	}
 
 	public void objdump(PrintStream out) {
+		StringBuilder sb = new StringBuilder(16);
 		for (int i = 0; i < addressSize; i++) {
-			if (memory[i].value != 0) {
-				out.println(new Address(i) + " " + new Word(memory[i].value));
+			int v = value(i);
+			if (v != 0) {
+				sb.setLength(0);
+				Disassembler.hex(sb, i, 4);
+				sb.append(' ');
+				Disassembler.hex(sb, v, 8);
+				out.println(sb);
 			}
 		}
 	}
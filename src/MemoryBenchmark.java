@@ -0,0 +1,86 @@
+/*
+rPeanut - is a simple simulator of the rPeANUt computer.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+// Times Memory.get() and Memory.set() on RAM and on a device page, run with
+//   java MemoryBenchmark [iterations]
+public class MemoryBenchmark {
+
+	public static void main(String[] args) throws MemFaultException {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 50000000;
+		Memory mem = new Memory(null);
+		mem.attach(0xFF00, 0xFF0F, new Device() {
+			int r;
+
+			@Override
+			public int read(int add) {
+				return r;
+			}
+
+			@Override
+			public void write(int add, int value) {
+				r = value;
+			}
+		});
+
+		// run each twice so the second run is after the JIT has warmed up
+		for (int pass = 0; pass < 2; pass++) {
+			report("ram set", n, setRam(mem, n));
+			report("ram get", n, getRam(mem, n));
+			report("device set", n, setDevice(mem, n));
+			report("device get", n, getDevice(mem, n));
+		}
+	}
+
+	static long setRam(Memory mem, int n) throws MemFaultException {
+		long start = System.nanoTime();
+		for (int i = 0; i < n; i++)
+			mem.set(i & 0x3FFF, i);
+		return System.nanoTime() - start;
+	}
+
+	static long getRam(Memory mem, int n) throws MemFaultException {
+		long start = System.nanoTime();
+		int sum = 0;
+		for (int i = 0; i < n; i++)
+			sum += mem.get(i & 0x3FFF, false);
+		sink = sum;
+		return System.nanoTime() - start;
+	}
+
+	static long setDevice(Memory mem, int n) throws MemFaultException {
+		long start = System.nanoTime();
+		for (int i = 0; i < n; i++)
+			mem.set(0xFF00 | (i & 0xF), i);
+		return System.nanoTime() - start;
+	}
+
+	static long getDevice(Memory mem, int n) throws MemFaultException {
+		long start = System.nanoTime();
+		int sum = 0;
+		for (int i = 0; i < n; i++)
+			sum += mem.get(0xFF00 | (i & 0xF), false);
+		sink = sum;
+		return System.nanoTime() - start;
+	}
+
+	static int sink;
+
+	static void report(String what, int n, long ns) {
+		System.out.println(String.format("%-12s %6.2f ns/access", what,
+				(double) ns / n));
+	}
+}
@@ -0,0 +1,106 @@
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/*
+rPeanut - is a simple simulator of the rPeANUt computer.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+public class MemoryTest {
+
+	// the addresses the table should show, worked out the slow way
+	ArrayList<String> shownRows(Simulate sim) throws MemFaultException {
+		ArrayList<String> rows = new ArrayList<String>();
+		int pc = sim.PC.get();
+		for (int i = 0; i < Memory.addressSize; i++) {
+			if (sim.memory.get(i) != 0 || i == pc || i - 1 == pc
+					|| (i > 0 && sim.memory.get(i - 1) != 0)
+					|| (i > 1 && sim.memory.get(i - 2) != 0))
+				rows.add(String.format("0x%04x", i));
+		}
+		return rows;
+	}
+
+	void checkRows(Simulate sim) throws MemFaultException {
+		ArrayList<String> rows = shownRows(sim);
+		assertEquals(rows.size(), sim.memory.getRowCount());
+		for (int r = 0; r < rows.size(); r++)
+			assertEquals(rows.get(r), sim.memory.getValueAt(r, 3));
+	}
+
+	@Test
+	public void testUnitRows() throws MemFaultException {
+		Simulate sim = new Simulate(false, false, false);
+		checkRows(sim);
+		Random rnd = new Random(1);
+		for (int i = 0; i < 2000; i++) {
+			int add = rnd.nextInt(Memory.addressSize);
+			sim.memory.set(add, rnd.nextInt(3) == 0 ? 0 : rnd.nextInt());
+			if (rnd.nextInt(20) == 0)
+				sim.PC.set(rnd.nextInt(Memory.addressSize));
+			if (i % 100 == 0)
+				checkRows(sim);
+		}
+		checkRows(sim);
+	}
+
+	@Test
+	public void testUnitRowsAfterStep() throws MemFaultException, ParseException {
+		Simulate sim = new Simulate(false, false, false);
+		Assemble.assemble("0x0100 : load #7 R1\n store R1 0x2000\n"
+				+ " store R1 0x2005\n jump 0x0200\n0x0200 : halt", sim);
+		sim.PC.set(0x0100);
+		checkRows(sim);
+		for (int i = 0; i < 4; i++) {
+			sim.step();
+			checkRows(sim);
+		}
+	}
+
+	@Test
+	public void testUnitFork() throws MemFaultException, ParseException {
+		Simulate sim = new Simulate(true, false, false);
+		Assemble.assemble("0x0100 : load #5 R1\n store R1 0x3000\n halt", sim);
+		sim.memory.set(0x4000, 11);
+		Snapshot snapshot = sim.snapshot();
+
+		Simulate child = snapshot.fork();
+		child.memory.set(0x4000, 22);
+		child.memory.set(0x4001, 33);
+		while (!child.halt)
+			child.step();
+		assertEquals(5, child.memory.get(0x3000));
+		assertEquals(22, child.memory.get(0x4000));
+
+		// neither the parent nor the snapshot sees the child's writes
+		assertEquals(0, sim.memory.get(0x3000));
+		assertEquals(11, sim.memory.get(0x4000));
+		assertEquals(0, sim.memory.get(0x4001));
+		Simulate again = snapshot.fork();
+		assertEquals(0, again.memory.get(0x3000));
+		assertEquals(11, again.memory.get(0x4000));
+		assertEquals(0, again.memory.get(0x4001));
+
+		// nor does the child see the parent's
+		sim.memory.set(0x4002, 44);
+		assertEquals(0, child.memory.get(0x4002));
+		assertEquals(0, again.memory.get(0x4002));
+	}
+}
@@ -7,6 +7,7 @@ import java.awt.event.KeyEvent;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowFocusListener;
 import java.io.*;
+import java.util.ArrayList;
 import java.util.prefs.Preferences;
 
 /*
@@ -104,14 +105,16 @@ public class Peanut implements ActionListener, LayoutManager,
 	JMenuItem runMenuItem;
 	JMenuItem stepMenuItem;
 	JMenuItem stopMenuItem;
-	JCheckBoxMenuItem echoInputItem, profileItem;
+	JCheckBoxMenuItem echoInputItem, scrollbackItem, profileItem;
 	JMenuItem pipeMenuItem;
-	JMenuItem cacheMenuItem;
+	JMenuItem cacheMenuItem, heatMapMenuItem;
+	JMenuItem saveStateMenuItem, restoreStateMenuItem;
 
 	EditCode editcode;
 	JButton assembleJButton;
 	JButton pokeJButton;
 	Simulate simulate;
+	HeatMap heatmap;
 
 	JFileChooser jfcs;
 
@@ -131,11 +134,15 @@ public class Peanut implements ActionListener, LayoutManager,
 	static final String REDO = "redo";
 	static final String STOP = "stop";
 	static final String SHOWCACHE = "showcache";
+	static final String SHOWHEATMAP = "showheatmap";
+	static final String SAVESTATE = "savestate";
+	static final String RESTORESTATE = "restorestate";
 
 	int lastpoke;
 	private static final String FONTSIZE = "editfont";
 	private static final String CHANGEECHO = "changeecho";
 	private static final String CHANGEPROFILE = "changeprofile";
+	private static final String CHANGESCROLLBACK = "changescrollback";
 	private File currentFileName = null;
 	private static final String PIPEFILE = "pipe";
 
@@ -245,6 +252,12 @@ public class Peanut implements ActionListener, LayoutManager,
 		codeMenu.add(new JSeparator());
 		codeMenu.add(echoInputItem);
 
+		scrollbackItem = new JCheckBoxMenuItem("Terminal scrollback");
+		scrollbackItem.setState(prefs.getBoolean("scrollback", false));
+		scrollbackItem.setActionCommand(CHANGESCROLLBACK);
+		scrollbackItem.addActionListener(this);
+		codeMenu.add(scrollbackItem);
+
 		profileItem = new JCheckBoxMenuItem("Profile");
 		profileItem.setState(prefs.getBoolean("profile", false));
 		profileItem.setActionCommand(CHANGEPROFILE);
@@ -261,6 +274,22 @@ public class Peanut implements ActionListener, LayoutManager,
 		cacheMenuItem.addActionListener(this);
 		codeMenu.add(cacheMenuItem);
 
+		heatMapMenuItem = new JMenuItem("Show memory heat map");
+		heatMapMenuItem.setActionCommand(SHOWHEATMAP);
+		heatMapMenuItem.addActionListener(this);
+		codeMenu.add(heatMapMenuItem);
+
+		saveStateMenuItem = new JMenuItem("Save machine state");
+		saveStateMenuItem.setActionCommand(SAVESTATE);
+		saveStateMenuItem.addActionListener(this);
+		codeMenu.add(new JSeparator());
+		codeMenu.add(saveStateMenuItem);
+
+		restoreStateMenuItem = new JMenuItem("Restore machine state");
+		restoreStateMenuItem.setActionCommand(RESTORESTATE);
+		restoreStateMenuItem.addActionListener(this);
+		codeMenu.add(restoreStateMenuItem);
+
 		fileMenu.add(newMenuItem);
 		fileMenu.add(loadMenuItem);
 		fileMenu.add(loadlastMenuItem);
@@ -302,6 +331,7 @@ public class Peanut implements ActionListener, LayoutManager,
 
 		simulate = new Simulate(false, prefs.getBoolean("echo", false),
 				prefs.getBoolean("profile", false));
+		simulate.setScrollback(scrollbackItem.getState());
 		split.setRightComponent(simulate);
 		simulate.cache.setLocationRelativeTo(jframe);
 		jframe.addWindowFocusListener(this);
@@ -346,6 +376,9 @@ public class Peanut implements ActionListener, LayoutManager,
 		} else if (ae.getActionCommand().equals(CHANGEECHO)) {
 			simulate.toggleEcho();
 			prefs.putBoolean("echo", simulate.getEchoInput());
+		} else if (ae.getActionCommand().equals(CHANGESCROLLBACK)) {
+			simulate.setScrollback(scrollbackItem.getState());
+			prefs.putBoolean("scrollback", scrollbackItem.getState());
 		} else if (ae.getActionCommand().equals(CHANGEPROFILE)) {
 			simulate.toggleProfile();
 			prefs.putBoolean("profile", simulate.getProfile());
@@ -355,6 +388,39 @@ public class Peanut implements ActionListener, LayoutManager,
 			pipeFile();
 		} else if (ae.getActionCommand().equals(SHOWCACHE)) {
 			simulate.cache.setVisible(true);
+		} else if (ae.getActionCommand().equals(SHOWHEATMAP)) {
+			if (heatmap == null)
+				heatmap = new HeatMap(simulate.cache.counts());
+			heatmap.setVisible(true, jframe);
+		} else if (ae.getActionCommand().equals(SAVESTATE)) {
+			saveState();
+		} else if (ae.getActionCommand().equals(RESTORESTATE)) {
+			restoreState();
+		}
+	}
+
+	private void saveState() {
+		simulate.stopPush();
+		JFileChooser chooser = new JFileChooser();
+		if (chooser.showSaveDialog(jframe) == JFileChooser.APPROVE_OPTION) {
+			try {
+				simulate.snapshot().save(chooser.getSelectedFile());
+			} catch (IOException e) {
+				JOptionPane.showMessageDialog(jframe, "Problem saving : " + e);
+			}
+		}
+	}
+
+	private void restoreState() {
+		simulate.stopPush();
+		JFileChooser chooser = new JFileChooser();
+		if (chooser.showOpenDialog(jframe) == JFileChooser.APPROVE_OPTION) {
+			try {
+				Snapshot.load(chooser.getSelectedFile()).restore(simulate);
+				simulate.update();
+			} catch (IOException e) {
+				JOptionPane.showMessageDialog(jframe, "Problem loading : " + e);
+			}
 		}
 	}
 
@@ -536,8 +602,22 @@ public class Peanut implements ActionListener, LayoutManager,
 			boolean countsteps = false;
 			boolean check = false;
 			boolean screen = false;
+			int fps = JFScreen.DEFAULTFPS;
+			String record = null;
+			boolean screenhash = false, screenhashall = false;
+			String dumpraw = null;
+			int recordevery = 0;
 			boolean objdump = false;
+			boolean disasm = false;
 			boolean load = false;
+			boolean semihost = false;
+			int semihostcost = Semihost.DEFAULTCOST;
+			String disk = null;
+			int diskseek = -1, disktransfer = -1;
+			ArrayList<String> forkinputs = new ArrayList<String>();
+			String save = null, restore = null;
+			String shm = null;
+			String outfile = null;
 			try {
 				for (int i = 0; i < args.length; i++) {
 					if (args[i].startsWith("-")) {
@@ -549,10 +629,45 @@ public class Peanut implements ActionListener, LayoutManager,
 							check = true;
 						} else if (args[i].equals("-screen")) {
 							screen = true;
+						} else if (args[i].equals("-fps")) {
+							fps = intArg(args, ++i);
+						} else if (args[i].equals("-screenhash")) {
+							screenhash = true;
+						} else if (args[i].equals("-screenhashall")) {
+							screenhashall = true;
+						} else if (args[i].equals("-dumpraw")) {
+							dumpraw = stringArg(args, ++i);
+						} else if (args[i].equals("-record")) {
+							record = stringArg(args, ++i);
+						} else if (args[i].equals("-recordevery")) {
+							recordevery = intArg(args, ++i);
 						} else if (args[i].equals("-objdump")) {
 							objdump = true;
+						} else if (args[i].equals("-disasm")) {
+							disasm = true;
 						} else if (args[i].equals("-load")) {
 							load = true;
+						} else if (args[i].equals("-semihost")) {
+							semihost = true;
+						} else if (args[i].equals("-semihostcost")) {
+							semihost = true;
+							semihostcost = intArg(args, ++i);
+						} else if (args[i].equals("-disk")) {
+							disk = stringArg(args, ++i);
+						} else if (args[i].equals("-diskseek")) {
+							diskseek = intArg(args, ++i);
+						} else if (args[i].equals("-disktransfer")) {
+							disktransfer = intArg(args, ++i);
+						} else if (args[i].equals("-save")) {
+							save = stringArg(args, ++i);
+						} else if (args[i].equals("-restore")) {
+							restore = stringArg(args, ++i);
+						} else if (args[i].equals("-shm")) {
+							shm = stringArg(args, ++i);
+						} else if (args[i].equals("-out")) {
+							outfile = stringArg(args, ++i);
+						} else if (args[i].equals("-forkinput")) {
+							forkinputs.add(stringArg(args, ++i));
 						} else if (args[i].equals("-help")) {
 							printHelpInfo(System.out);
 							System.exit(0);
@@ -567,8 +682,12 @@ public class Peanut implements ActionListener, LayoutManager,
 						filename = args[i];
 					}
 				}
-				if (filename == null)
+				if (filename == null && restore == null)
 					throw new ArgsException("filename expected");
+				if (filename != null && restore != null)
+					throw new ArgsException("-restore replaces the filename");
+				if (restore != null && (check || load))
+					throw new ArgsException("-restore can't be used with -check or -load");
 
 				if (load) {
 					Peanut peanut = new Peanut();
@@ -576,11 +695,42 @@ public class Peanut implements ActionListener, LayoutManager,
 					peanut.editcode.load(file);
 					peanut.setCurrentFile(file);
 				} else {
-					String text;
+					String text = null;
 
-					text = EditCode.loadfile(new File(filename));
+					if (filename != null)
+						text = EditCode.loadfile(new File(filename));
 
 					Simulate simulate = new Simulate(true, false, false);
+					if (semihost) {
+						simulate.setSemihost(true);
+						simulate.semihost.cost = semihostcost;
+					}
+					if (disk != null) {
+						try {
+							simulate.harddisk.open(new File(disk));
+						} catch (IOException e) {
+							throw new ArgsException("unable to open disk image : " + disk);
+						}
+					}
+					if (shm != null) {
+						try {
+							simulate.memory.share(new File(shm));
+						} catch (IOException e) {
+							throw new ArgsException("unable to map memory to : " + shm);
+						}
+					}
+					if (outfile != null) {
+						try {
+							simulate.output = new TerminalOutput(
+									new FileOutputStream(outfile).getChannel());
+						} catch (IOException e) {
+							throw new ArgsException("unable to write : " + outfile);
+						}
+					}
+					if (diskseek >= 0)
+						simulate.harddisk.seektime = diskseek;
+					if (disktransfer >= 0)
+						simulate.harddisk.transfertime = disktransfer;
 
 					if (check) {
 						try {
@@ -592,28 +742,121 @@ public class Peanut implements ActionListener, LayoutManager,
 						System.out.println("okay");
 						System.exit(0);
 					} else {
-						Assemble.assemble(text, simulate);
-						if (objdump) {
+						if (restore != null) {
+							try {
+								Snapshot.load(new File(restore)).restore(simulate);
+							} catch (IOException e) {
+								throw new ArgsException(e.getMessage());
+							}
+						} else {
+							Assemble.assemble(text, simulate);
+						}
+						if (save != null) {
+							try {
+								simulate.snapshot().save(new File(save));
+							} catch (IOException e) {
+								throw new ArgsException("unable to save : " + save);
+							}
+						} else if (objdump) {
 							simulate.memory.objdump(System.out);
+						} else if (disasm) {
+							try {
+								new Disassembler(simulate.memory).dump(
+										new BufferedOutputStream(System.out, 1 << 16));
+							} catch (IOException e) {
+								System.exit(1);
+							}
+						} else if (!forkinputs.isEmpty()) {
+							runForks(simulate, forkinputs, dumpframebuffer,
+									countsteps);
 						} else {
 
 							if (screen) {
-								JFScreen jscreen = new JFScreen(simulate);
-								Thread t = new Thread(jscreen);
-								t.start();
+								new JFScreen(simulate, fps).start();
 							}
+							FrameRecorder recorder = null;
+							if (record != null) {
+								recorder = new FrameRecorder(simulate,
+										new File(record), recordevery,
+										1000 / Math.max(1, Math.min(JFScreen.MAXFPS, fps)));
+								try {
+									recorder.start();
+								} catch (IOException e) {
+									throw new ArgsException("unable to record to : " + record);
+								}
+							}
+							// -screenhashall looks at the screen at each vertical
+							// blank or page flip, not at every store into it
+							int hashstamp = simulate.memory.screenstamp;
+							int hashframes = simulate.display.frames;
+							int hashpage = simulate.display.page;
+							long lasthash = simulate.screen.hash();
+							if (screenhashall)
+								printHash(simulate.count, lasthash);
 							while (!simulate.halt) {
 								simulate.step();
+								if (recorder != null) {
+									try {
+										recorder.step();
+									} catch (IOException e) {
+										throw new ArgsException("unable to record to : " + record);
+									}
+								}
+								if (screenhashall
+										&& (simulate.display.frames != hashframes
+										|| simulate.display.page != hashpage || simulate.halt)) {
+									hashframes = simulate.display.frames;
+									hashpage = simulate.display.page;
+									if (simulate.memory.screenstamp != hashstamp) {
+										hashstamp = simulate.memory.screenstamp;
+										long h = simulate.screen.hash();
+										if (h != lasthash) {
+											simulate.output.flush();
+											printHash(simulate.count, h);
+										}
+										lasthash = h;
+									}
+								}
+							}
+							try {
+								simulate.output.close();
+							} catch (IOException e) {
+								throw new ArgsException("unable to write : " + outfile);
+							}
+							if (recorder != null) {
+								try {
+									recorder.finish();
+								} catch (IOException e) {
+									throw new ArgsException("unable to record to : " + record);
+								}
 							}
 							if (dumpframebuffer) {
 								simulate.screen.dump(System.out);
 							}
+							if (screenhash) {
+								System.out.println();
+								printHash(-1, simulate.screen.hash());
+							}
+							if (dumpraw != null) {
+								try {
+									if (dumpraw.equals("-")) {
+										simulate.screen.dumpRaw(System.out);
+									} else {
+										FileOutputStream out = new FileOutputStream(dumpraw);
+										simulate.screen.dumpRaw(out);
+										out.close();
+									}
+								} catch (IOException e) {
+									throw new ArgsException("unable to write : " + dumpraw);
+								}
+							}
 							if (countsteps) {
 								System.out.println("\nCount : "
 										+ simulate.count);
 							}
 						}
-						System.exit(0);
+						simulate.harddisk.close();
+						System.exit(simulate.exitcode);
 					}
 
 				}
@@ -636,6 +879,87 @@ public class Peanut implements ActionListener, LayoutManager,
 		}
 	}
 
+	// Runs the program up to the point it first looks at the terminal, then
+	// carries on from there once for each of the input files. The output of
+	// each run, including the output before the snapshot, goes to the name
+	// of its input file with ".out" added. The inputs are all opened first,
+	// so a missing one is reported before anything runs.
+	private static void runForks(Simulate simulate, ArrayList<String> inputs,
+			boolean dumpframebuffer, boolean countsteps) throws IOException,
+			ArgsException {
+		ArrayList<InputStream> ins = new ArrayList<InputStream>();
+		for (String input : inputs) {
+			try {
+				ins.add(new FileInputStream(input));
+			} catch (FileNotFoundException e) {
+				throw new ArgsException("unable to read fork input : " + input);
+			}
+		}
+		ByteArrayOutputStream prefix = new ByteArrayOutputStream();
+		simulate.output = new TerminalOutput(prefix);
+		simulate.stoponinput = true;
+		while (!simulate.halt && !simulate.inputwait) {
+			simulate.step();
+		}
+		simulate.output.flush();
+		simulate.stoponinput = false;
+		Snapshot snapshot = simulate.snapshot();
+
+		for (int i = 0; i < inputs.size(); i++) {
+			String input = inputs.get(i);
+			InputStream in = ins.get(i);
+			PrintStream out;
+			try {
+				out = new PrintStream(new BufferedOutputStream(
+						new FileOutputStream(input + ".out")));
+			} catch (FileNotFoundException e) {
+				throw new ArgsException("unable to write : " + input + ".out");
+			}
+			Simulate child = snapshot.fork();
+			prefix.writeTo(out);
+			child.input = new InputReader(in);
+			child.output = new TerminalOutput(out);
+			while (!child.halt) {
+				child.step();
+			}
+			child.output.flush();
+			if (dumpframebuffer) {
+				child.screen.dump(out);
+			}
+			if (countsteps) {
+				out.println("\nCount : " + child.count);
+			}
+			out.close();
+			in.close();
+		}
+	}
+
+	// "Screen hash : <hash>" at halt, or "<count> <hash>" in a timeline
+	private static void printHash(int count, long hash) {
+		String h = String.format("%016x", hash);
+		if (count < 0)
+			System.out.println("Screen hash : " + h);
+		else
+			System.out.println(count + " " + h);
+	}
+
+	private static String stringArg(String[] args, int i) throws ArgsException {
+		if (i >= args.length)
+			throw new ArgsException(args[i - 1] + " expects an argument");
+		return args[i];
+	}
+
+	private static int intArg(String[] args, int i) throws ArgsException {
+		if (i >= args.length)
+			throw new ArgsException(args[i - 1] + " expects a number");
+		try {
+			return Integer.decode(args[i]);
+		} catch (NumberFormatException e) {
+			throw new ArgsException(args[i - 1] + " expects a number : "
+					+ args[i]);
+		}
+	}
+
 	private static void printHelpInfo(PrintStream out) {
 		final String helpstr = "rPeANUt is a RISC version of the PeANUt computer. The simulator is written\n"
 				+ "completely in Java at the beginning of 2011. The source code is GPL and \n"
@@ -653,8 +977,30 @@ public class Peanut implements ActionListener, LayoutManager,
 				+ "    -count : this produces a count of the instructions executed once the program halts.\n"
 				+ "    -check : this checks whether a script can compile or not\n"
 				+ "    -screen : this runs the program with only the display screen\n"
+				+ "    -fps <n> : how often the -screen window is redrawn, at most 60 (default 25)\n"
+				+ "    -screenhash : print a hash of the frame buffer once the computer halts\n"
+				+ "    -screenhashall : print the instruction count and frame buffer hash at each vertical\n"
+				+ "                     blank or page flip that shows a changed screen, and at the halt\n"
+				+ "    -dumpraw <file> : write the frame buffer as 960 raw big endian words once the computer halts (- for stdout)\n"
+				+ "    -record <file> : record the frame buffer as an animated GIF (file.gif), played at -fps,\n"
+				+ "                     or otherwise as numbered PNGs (file00000.png, file00001.png, ...)\n"
+				+ "    -recordevery <n> : record a frame every n instructions (default 0, at each vertical blank\n"
+				+ "                       or page flip that shows a changed screen)\n"
 				+ "    -load : this opens the rPeANUt editor with the specified file\n"
 				+ "    -objdump : this does a dump of the memory directly after it has assembled the specified program\n"
+				+ "    -disasm : like -objdump but each word is also disassembled, and labels are shown\n"
+				+ "    -semihost : a trap with a service number in R0 is handled by the simulator (see Semihost.java)\n"
+				+ "    -semihostcost <n> : the number of cycles charged for each semihosting call (default 10)\n"
+				+ "    -disk <image> : attach the image file as the hard disk (see HardDisk.java), it is created if empty\n"
+				+ "    -diskseek <n> : the instructions it takes the disk head to move one track (default 200)\n"
+				+ "    -disktransfer <n> : the instructions it takes to transfer one sector (default 20)\n"
+				+ "    -save <file> : save the state of the machine to the file after it has assembled the program\n"
+				+ "    -restore <file> : start from a saved machine state rather than assembling a program\n"
+				+ "    -shm <file> : keep the file a live copy of memory (32K big endian words) for other programs to watch\n"
+				+ "    -out <file> : write the program's terminal output to the file rather than stdout\n"
+				+ "    -forkinput <file> : run the program once for each -forkinput file given, each run\n"
+				+ "                        carries on from a snapshot taken before the first terminal input\n"
+				+ "                        and its output is written to <file>.out\n"
 				+ "    -help : this help info\n";
 		out.println(helpstr);
 	}
@@ -0,0 +1,64 @@
+/*
+rPeanut - is a simple simulator of the rPeANUt computer.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+// Performance monitoring unit, read only, mapped at 0xFFF8 - 0xFFFE:
+//   0xFFF8 instructions retired
+//   0xFFF9 cycles
+//   0xFFFA cache hits
+//   0xFFFB cache misses
+//   0xFFFC interrupts taken
+//   0xFFFD memory reads
+//   0xFFFE memory writes
+// These are just reads of counts the simulator keeps anyway, so reading them
+// never changes what they measure.
+public class PerfCounters implements Device {
+	static final int START = 0xFFF8;
+	static final int END = 0xFFFE;
+
+	Simulate sim;
+
+	public PerfCounters(Simulate sim) {
+		this.sim = sim;
+	}
+
+	@Override
+	public int read(int add) {
+		switch (add - START) {
+		case 0:
+			return sim.count;
+		case 1:
+			return sim.cache.count;
+		case 2:
+			return sim.cache.hits;
+		case 3:
+			return sim.cache.accesses - sim.cache.hits;
+		case 4:
+			return sim.interrupts;
+		case 5:
+			return sim.cache.reads;
+		case 6:
+			return sim.cache.writes;
+		default:
+			return 0;
+		}
+	}
+
+	@Override
+	public void write(int add, int value) {
+		// the counters can't be written
+	}
+}
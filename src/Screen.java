@@ -2,6 +2,11 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
 
 import javax.swing.JComponent;
@@ -31,10 +36,25 @@ public class Screen extends JComponent {
 			2 * Simulate.SCREENWIDTH, 2 * Simulate.SCREENHEIGHT);
 	static final int wordsPerLine = Simulate.SCREENWIDTH / 32; // this is 6
 	private BufferedImage buf;
+	private int pixels[]; // buf's raster, written directly
+	private int words[] = new int[wordsPerLine * Simulate.SCREENHEIGHT];
+	private boolean changed[] = new boolean[Simulate.SCREENHEIGHT];
+	private int text[] = new int[TextMode.COLUMNS * TextMode.ROWS];
+	private boolean textshown;
+	static final int COPYTRIES = 3;
 	Memory memory;
+	private int drawn; // the memory's screenstamp when last drawn
 	static int black = Color.black.getRGB();
 	static int white = Color.white.getRGB();
 
+	// the 8 pixels for each byte of the frame buffer, lowest bit first
+	static final int BYTEPIXELS[][] = new int[256][8];
+	static {
+		for (int b = 0; b < 256; b++)
+			for (int bit = 0; bit < 8; bit++)
+				BYTEPIXELS[b][bit] = ((b >> bit) & 1) == 1 ? white : black;
+	}
+
 	public Screen(Memory mem) {
 		// this.setSize(screensize);
 		this.setMinimumSize(screensize);
@@ -42,28 +62,91 @@ public class Screen extends JComponent {
 		this.setPreferredSize(dscreensize);
 		buf = new BufferedImage(screensize.width, screensize.height,
 				BufferedImage.TYPE_INT_ARGB);
+		pixels = ((DataBufferInt) buf.getRaster().getDataBuffer()).getData();
 		memory = mem;
+		drawn = -1;
 	}
 
+	// Redraws the scan lines written since the last refresh. The lines are
+	// copied out of memory first and drawn from the copy. If the CPU wrote
+	// to the screen during the copy, the lines it wrote are copied again,
+	// so each frame is one consistent picture. After COPYTRIES it gives up
+	// and leaves the rest for the next refresh.
 	public void refreshAll() {
-		try {
-			for (int currentline = 0; currentline < screensize.height; currentline++) {
-				int startword = Simulate.SCREENSTART + currentline
-						* wordsPerLine;
-				for (int woff = 0; woff < wordsPerLine; woff++) {
-					int word = memory.get(startword + woff);
-
-					for (int bit = 0; bit < 32; bit++) {
-						int c = (((word >> bit) & 1) == 1 ? white : black);
-						buf.setRGB(bit + woff * 32, currentline, c);
-					}
+		int stamp = memory.screenstamp;
+		if (stamp == drawn) {
+			repaint();
+			return;
+		}
+		int since = drawn;
+		TextMode textmode = memory.simulate == null ? null : memory.simulate.textmode;
+		for (int tries = 0; tries < COPYTRIES; tries++) {
+			int base = memory.screenbase; // a flip stamps every line
+			textshown = textmode != null && textmode.enabled;
+			for (int line = 0; line < screensize.height; line++) {
+				if (memory.linestamp[line] <= since)
+					continue;
+				int start = line * wordsPerLine;
+				for (int woff = 0; woff < wordsPerLine; woff++)
+					// read straight from memory so drawing isn't profiled
+					words[start + woff] = memory.value(base + start + woff);
+				if (textshown && (line & 7) == 0)
+					System.arraycopy(textmode.cells, (line >> 3) * TextMode.COLUMNS,
+							text, (line >> 3) * TextMode.COLUMNS, TextMode.COLUMNS);
+				changed[line] = true;
+			}
+			int now = memory.screenstamp;
+			if (now == stamp)
+				break;
+			since = stamp;
+			if (tries < COPYTRIES - 1)
+				stamp = now;
+		}
+
+		for (int line = 0; line < screensize.height; line++) {
+			if (!changed[line])
+				continue;
+			changed[line] = false;
+			int p = line * Simulate.SCREENWIDTH;
+			for (int woff = 0; woff < wordsPerLine; woff++) {
+				int word = words[line * wordsPerLine + woff];
+				for (int shift = 0; shift < 32; shift += 8) {
+					System.arraycopy(BYTEPIXELS[(word >>> shift) & 0xff], 0,
+							pixels, p, 8);
+					p += 8;
 				}
 			}
-		} catch (MemFaultException e) {
+			if (textshown)
+				drawText(line);
 		}
+		drawn = stamp;
 		repaint();
 	}
 
+	// draws the text mode characters over a line
+	private void drawText(int line) {
+		int row = line >> 3, gy = line & 7;
+		for (int col = 0; col < TextMode.COLUMNS; col++) {
+			int cell = text[row * TextMode.COLUMNS + col];
+			if (cell == 0)
+				continue;
+			int bits = TextMode.glyphRow(cell, gy);
+			int fg = white, bg = black;
+			if ((cell & TextMode.COLOUR) != 0) {
+				fg = TextMode.PALETTE[(cell >> 12) & 7];
+				bg = TextMode.PALETTE[(cell >> 16) & 7];
+			}
+			boolean opaque = (cell & (TextMode.OPAQUE | TextMode.INVERSE)) != 0;
+			int p = line * Simulate.SCREENWIDTH + col * 8;
+			for (int x = 0; x < 8; x++) {
+				if (((bits >> x) & 1) != 0)
+					pixels[p + x] = fg;
+				else if (opaque)
+					pixels[p + x] = bg;
+			}
+		}
+	}
+
 	@Override
 	protected void paintComponent(Graphics g) {
 
@@ -76,16 +159,34 @@ public class Screen extends JComponent {
 		for (int y = 0; y < screensize.height; y++) {
 			out.print(y);
 			for (int x = 0; x < wordsPerLine; x++) {
-				int value = 0;
-				try {
-					value = memory.get(Simulate.SCREENSTART + y * wordsPerLine
-							+ x);
-				} catch (MemFaultException e) {
-				}
+				int value = memory.value(memory.screenbase + y * wordsPerLine
+						+ x);
 				out.print(":");
 				out.print(String.format("%08x", value));
 			}
 			out.println();
 		}
 	}
+
+	// A 64 bit FNV-1a hash of the frame buffer shown, taken over its words as big
+	// endian bytes, the same on every machine.
+	public long hash() {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < wordsPerLine * screensize.height; i++) {
+			int value = memory.value(memory.screenbase + i);
+			for (int shift = 24; shift >= 0; shift -= 8) {
+				h ^= (value >>> shift) & 0xff;
+				h *= 0x100000001b3L;
+			}
+		}
+		return h;
+	}
+
+	// the frame buffer as raw big endian words, 3840 bytes
+	public void dumpRaw(OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+		for (int i = 0; i < wordsPerLine * screensize.height; i++)
+			data.writeInt(memory.value(memory.screenbase + i));
+		data.flush();
+	}
 }
@@ -0,0 +1,142 @@
+import java.io.IOException;
+
+/*
+rPeanut - is a simple simulator of the rPeANUt computer.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+// Semihosting - when enabled a "trap" with a service number in R0 is
+// handled by the simulator rather than by the program's trap handler.
+// Arguments are passed in R1-R3 and any result is returned in R0.
+//   R0 = 1 : print R1 as a signed decimal
+//   R0 = 2 : print the zero terminated string at R1 (one character per word)
+//   R0 = 3 : copy R3 words from R2 to R1
+//   R0 = 4 : set R3 words starting at R1 to R2
+//   R0 = 5 : read a line into R1, at most R2 words including the terminating
+//            zero, R0 is set to the number of characters read. In the GUI
+//            the trap is run again until a whole line has been typed.
+//   R0 = 6 : halt with exit code R1
+// Any other value in R0 is left to the normal trap interrupt.
+public class Semihost {
+	static final int PRINTINT = 1;
+	static final int PRINTSTR = 2;
+	static final int MEMCPY = 3;
+	static final int MEMSET = 4;
+	static final int READLINE = 5;
+	static final int EXIT = 6;
+
+	static final int DEFAULTCOST = 10;
+
+	Simulate sim;
+	int cost;
+
+	public Semihost(Simulate sim) {
+		this.sim = sim;
+		cost = DEFAULTCOST;
+	}
+
+	// returns false if R0 does not hold a service number
+	public boolean call() throws MemFaultException {
+		int service = sim.r[0].get();
+		int a1 = sim.r[1].get();
+		int a2 = sim.r[2].get();
+		int a3 = sim.r[3].get();
+		Memory mem = sim.memory;
+
+		switch (service) {
+		case PRINTINT:
+			String num = Integer.toString(a1);
+			for (int i = 0; i < num.length(); i++) {
+				sim.output(num.charAt(i));
+			}
+			break;
+		case PRINTSTR:
+			for (int i = 0; i < Memory.addressSize; i++) {
+				int c = mem.get(0xffff & (a1 + i), false);
+				if (c == 0)
+					break;
+				sim.output(c);
+			}
+			break;
+		case MEMCPY:
+			if (a2 < a1) {
+				for (int i = a3 - 1; i >= 0; i--) {
+					mem.set(0xffff & (a1 + i), mem.get(0xffff & (a2 + i), false));
+				}
+			} else {
+				for (int i = 0; i < a3; i++) {
+					mem.set(0xffff & (a1 + i), mem.get(0xffff & (a2 + i), false));
+				}
+			}
+			break;
+		case MEMSET:
+			for (int i = 0; i < a3; i++) {
+				mem.set(0xffff & (a1 + i), a2);
+			}
+			break;
+		case READLINE:
+			if (sim.stoponinput || (!sim.term && !lineTyped(a2 - 1)))
+				throw new InputWaitException();
+			int len = 0;
+			while (len < a2 - 1) {
+				int c = readChar();
+				if (c == -1)
+					break;
+				if (c == '\n')
+					break;
+				mem.set(0xffff & (a1 + len), c);
+				len++;
+			}
+			if (a2 > 0)
+				mem.set(0xffff & (a1 + len), 0);
+			sim.r[0].set(len);
+			break;
+		case EXIT:
+			sim.exitcode = a1;
+			sim.halt = true;
+			break;
+		default:
+			return false;
+		}
+		sim.cache.addClocks(cost);
+		return true;
+	}
+
+	// whether the GUI terminal holds a line, or enough to fill max words
+	private boolean lineTyped(int max) {
+		String typed = sim.terminalChar;
+		return typed.indexOf('\n') >= 0 || typed.length() >= max;
+	}
+
+	// blocks on stdin when in term mode, otherwise -1 once the typed
+	// input runs out
+	private int readChar() {
+		if (sim.term) {
+			try {
+				if (sim.input.available() == 0)
+					sim.output.flush();
+				return sim.input.read();
+			} catch (IOException e) {
+				return -1;
+			}
+		} else {
+			if (sim.terminalChar.length() == 0)
+				return -1;
+			int c = sim.terminalChar.charAt(0);
+			sim.terminalChar = sim.terminalChar.substring(1);
+			return c;
+		}
+	}
+}
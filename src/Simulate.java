@@ -15,6 +15,7 @@ import java.awt.event.FocusListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.EventObject;
 
 import javax.swing.BorderFactory;
@@ -67,6 +68,10 @@ public class Simulate extends JPanel implements ActionListener, KeyListener,
 	static final int IOINT = 1;
 	static final int TRAPINT = 2;
 	static final int TIMERINT = 3;
+	static final int COPROCINT = 4;
+	static final int BLITINT = 5;
+	static final int DISKINT = 6;
+	static final int VBLANKINT = 7;
 
 	static final int OFBIT = 0;
 	static final int IMBIT = 1;
@@ -80,12 +85,17 @@ public class Simulate extends JPanel implements ActionListener, KeyListener,
 
 	static final int TERMINALLINES = 8;
 	static final int TERMINALWIDTH = 40;
+	static final int TERMINALSCROLLBACK = 1000; // lines kept with scrollback on
 	static Font terminalfont = new Font(Font.MONOSPACED, Font.PLAIN, 14);
 
 	Register r[];
 	Register SP, IR, SR, PC;
 
 	private JTextArea terminal;
+	private JScrollPane terminalscroll;
+	TerminalBuffer terminalbuffer;
+	private Timer terminaltimer;
+	private int terminaldrawn = -1; // terminalbuffer.stamp when last drawn
 	String terminalChar;
 	boolean terminalCharInterrupt;
 
@@ -100,6 +110,20 @@ public class Simulate extends JPanel implements ActionListener, KeyListener,
 
 	HardDisk harddisk;
 
+	Semihost semihost;
+	int exitcode;
+
+	Coprocessor coprocessor;
+	Blitter blitter;
+	Display display;
+	TextMode textmode;
+
+	// device interrupts waiting for the interrupt mask to clear, one bit per
+	// vector, and the count at which a device next wants to be told the time.
+	// The devices all raise them from the simulator thread.
+	int pendinginterrupts;
+	int nextevent;
+
 	JButton step, run, fast, slow, stop;
 
 	
@@ -112,10 +136,21 @@ public class Simulate extends JPanel implements ActionListener, KeyListener,
 	RunSpeed runspeed;
 
 	boolean term;
+	// the terminal in term mode
+	InputStream input; // term mode only
+	TerminalOutput output;
+	private int outputflushat;
+	private long outputsince;
+
+	// When set the simulator stops just before the program first looks at
+	// the terminal, and inputwait is set, so a snapshot can be taken.
+	boolean stoponinput;
+	boolean inputwait;
 
 	boolean halt;
 
 	int count, delay;
+	int interrupts;
 	JLabel countLabel;
 
 	int fastcount;
@@ -126,6 +161,10 @@ public class Simulate extends JPanel implements ActionListener, KeyListener,
 
 	public Simulate(boolean term, boolean echo, boolean profile) {
 		this.term = term;
+		if (term) {
+			input = new InputReader(System.in);
+			output = new TerminalOutput(System.out);
+		}
 		this.echoInput = echo;
 		this.profile = profile;
 		halt = false;
@@ -148,6 +187,7 @@ public class Simulate extends JPanel implements ActionListener, KeyListener,
 		PC = new Register("PC");
 
 		memory = new Memory(this);
+		memory.setProfiling(profile);
 		memtable = new JTable(memory);
 		// memtable.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 8));
 		memtable.getColumnModel().getColumn(0).setHeaderValue("");
@@ -197,33 +237,28 @@ public class Simulate extends JPanel implements ActionListener, KeyListener,
 
 		memtable.getColumnModel().getColumn(0)
 				.setCellRenderer(new TableCellRenderer() {
+					// the same two components are handed out for every row
+					Component marked = new Component() {
 
-					public Component getTableCellRendererComponent(
-							JTable table, Object value, boolean isSelected,
-							boolean isFocused, int row, int col) {
-						boolean marked = (Boolean) value;
-						if (marked) {
-							return new Component() {
-
-								public void paint(java.awt.Graphics g) {
-									g.setColor(Color.blue);
-									g.fillRect(2, 2, 6, 6);
-								};
+						public void paint(java.awt.Graphics g) {
+							g.setColor(Color.blue);
+							g.fillRect(2, 2, 6, 6);
+						};
 
-							};
-						} else {
-							Component comp = new Component() {
+					};
+					Component unmarked = new Component() {
 
-								public void paint(java.awt.Graphics g) {
-									g.setColor(Color.white);
-									g.fillRect(0, 0, 10, 10);
-								};
+						public void paint(java.awt.Graphics g) {
+							g.setColor(Color.white);
+							g.fillRect(0, 0, 10, 10);
+						};
 
-							};
-
-							return comp;
-						}
+					};
 
+					public Component getTableCellRendererComponent(
+							JTable table, Object value, boolean isSelected,
+							boolean isFocused, int row, int col) {
+						return (Boolean) value ? marked : unmarked;
 					}
 				});
 		memtable.getColumnModel().getColumn(1).setHeaderValue("profile");
@@ -251,7 +286,21 @@ public class Simulate extends JPanel implements ActionListener, KeyListener,
 
 		cache = new Cache(memory);
 
-		harddisk = new HardDisk();
+		harddisk = new HardDisk(this);
+
+		coprocessor = new Coprocessor(this);
+		blitter = new Blitter(this);
+		display = new Display(this);
+		textmode = new TextMode(this);
+
+		memory.attach(Terminal.START, Terminal.END, new Terminal(this));
+		memory.attach(PerfCounters.START, PerfCounters.END, new PerfCounters(this));
+		memory.attach(Coprocessor.START, Coprocessor.END, coprocessor);
+		memory.attach(Blitter.START, Blitter.END, blitter);
+		memory.attach(Display.START, Display.END, display);
+		memory.attach(TextMode.START, TextMode.END, textmode);
+		memory.attach(TextMode.CONTROL, TextMode.CONTROL, textmode);
+		memory.attach(HardDisk.START, HardDisk.END, harddisk);
 
 		terminal = new JTextArea(10, 10);
 		terminal.setFont(terminalfont);
@@ -260,9 +309,25 @@ public class Simulate extends JPanel implements ActionListener, KeyListener,
 		terminal.addFocusListener(this);
 
 		terminal.setEditable(false);
-		terminal.setPreferredSize(new Dimension(scrollsize.width,
+		terminalscroll = new JScrollPane(terminal);
+		terminalscroll.setPreferredSize(new Dimension(scrollsize.width,
 				scrollsize.height / 2));
 
+		// the program's output is drawn at most once a frame on the event
+		// thread, however fast it is written
+		terminalbuffer = new TerminalBuffer(TERMINALWIDTH, TERMINALLINES + 1);
+		if (!term) {
+			terminaltimer = new Timer(1000 / JFScreen.DEFAULTFPS,
+					new ActionListener() {
+						@Override
+						public void actionPerformed(ActionEvent e) {
+							drawTerminal();
+						}
+					});
+			terminaltimer.setCoalesce(true);
+			terminaltimer.start();
+		}
+
 		terminalChar = "";
 		terminalCharInterrupt = false;
 		screen = new Screen(memory);
@@ -306,7 +371,7 @@ public class Simulate extends JPanel implements ActionListener, KeyListener,
 		add(countLabel);
 
 		this.add(screen);
-		this.add(terminal);
+		this.add(terminalscroll);
 		this.add(memscroll);
 
 	}
@@ -316,9 +381,19 @@ public class Simulate extends JPanel implements ActionListener, KeyListener,
 		// slowrun = false;
 		runspeed = RunSpeed.NORMAL;
 		halt = false;
+		inputwait = false;
+		exitcode = 0;
 		timeroff = false;
 		count = 0;
+		interrupts = 0;
+		pendinginterrupts = 0;
+		nextevent = Integer.MAX_VALUE;
+		coprocessor.reset();
+		blitter.reset();
+		harddisk.reset();
 		memory.reset();
+		display.reset();
+		textmode.reset();
 		cache.reset();
 		for (int i = 0; i < numReg; i++) {
 			r[i].reset();
@@ -330,13 +405,13 @@ public class Simulate extends JPanel implements ActionListener, KeyListener,
 		terminalChar = "";
 		terminalCharInterrupt = false;
 		memory.fireTableDataChanged();
-		terminal.setText("");
+		terminalbuffer.clear();
 		screen.refreshAll();
 
 	}
 
 	public void update() {
-		memory.fireTableDataChanged();
+		memory.fireChanges();
 		memory.setHighlight();
 		countLabel.setText("Count: " + count);
 		screen.refreshAll();
@@ -369,8 +444,11 @@ public class Simulate extends JPanel implements ActionListener, KeyListener,
 	public boolean step() { // this is our CPU
 		try {
 			count++;
+			// a GUI semihost read may also wait for input
+			if (stoponinput || !term)
+				cache.mark(PC.get());
 			// load instruction
-			IR.set(cache.get(PC.get()));
+			IR.set(cache.fetch(PC.get()));
 			PC.set((PC.get() + 1));
 			int instruction = IR.get();
 			if (instruction == 0x00000000) {
@@ -422,10 +500,9 @@ public class Simulate extends JPanel implements ActionListener, KeyListener,
 				PC.set(0xffff & cache.get(SP.get()));
 				SP.set(SP.get() - 1);
 			} else if ((instruction & 0xffff0000) == 0xA3020000) { // trap
-				SP.set(SP.get() + 1);
-				cache.set(SP.get(), PC.get());
-				SR.set(SR.get() | (1 << IMBIT));
-				PC.set(TRAPINT);
+				if (semihost == null || !semihost.call()) {
+					trap();
+				}
 			} else if ((instruction & 0xffff0000) == 0xA4000000) { // jump
 				PC.set(instruction & 0x0000ffff);
 			} else if ((instruction & 0xfff00000) == 0xA4100000) { // jumpz
@@ -496,15 +573,23 @@ public class Simulate extends JPanel implements ActionListener, KeyListener,
 
 				cache.set((val + getreg3(instruction)), getreg2(instruction));
 			}
+		} catch (InputWaitException iwe) { // undo the instruction
+			PC.set(PC.get() - 1);
+			count--;
+			cache.undo();
+			inputwait = true;
+			return false;
 		} catch (MemFaultException mfe) {
-			SP.set(SP.get() + 1);
-			try {
-				cache.set(SP.get(), PC.get());
-			} catch (MemFaultException e) { // note if we run out of stack
-				// we have major problems
-			}
-			PC.set(MEMFAULTINT);
-			SR.set(SR.get() | (1 << IMBIT));
+			interrupt(MEMFAULTINT);
+		}
+
+		if (count >= nextevent) {
+			nextevent = Integer.MAX_VALUE;
+			coprocessor.event();
+			blitter.event();
+			display.event();
+			harddisk.event();
+			outputEvent();
 		}
 
 		// Traps and the like:
@@ -514,33 +599,24 @@ public class Simulate extends JPanel implements ActionListener, KeyListener,
 			if ((count % TIMERCOUNT == 0 || timeroff)
 					&& (SR.get() >> TIBIT & 1) == 1) {
 				if ((SR.get() >> IMBIT & 1) != 1) {
-					SP.set(SP.get() + 1);
-					try {
-						cache.set(SP.get(), PC.get());
-					} catch (MemFaultException e) { // note if we run out of
-													// stack
-						// we have major problems
-					}
-
-					PC.set(TIMERINT);
-					SR.set(SR.get() | (1 << IMBIT));
+					interrupt(TIMERINT);
 					timeroff = false;
 				} else {
 					timeroff = true;
 				}
-			} else if (((!term && terminalChar.length() > 0) || (term && System.in
-					.available() > 0))
-					&& terminalCharInterrupt
-					&& (SR.get() >> IMBIT & 1) != 1) {
-				SP.set(SP.get() + 1);
-				try {
-					cache.set(SP.get(), PC.get());
-				} catch (MemFaultException e) { // note if we run out of stack
-					// we have major problems
+			} else if (terminalCharInterrupt
+					&& (SR.get() >> IMBIT & 1) != 1
+					&& (stoponinput || (!term && terminalChar.length() > 0) || (term && input
+							.available() > 0))) {
+				if (stoponinput) {
+					inputwait = true;
+				} else {
+					interrupt(IOINT);
 				}
-
-				PC.set(IOINT);
-				SR.set(SR.get() | (1 << IMBIT));
+			} else if (pendinginterrupts != 0 && (SR.get() >> IMBIT & 1) != 1) {
+				int vector = Integer.numberOfTrailingZeros(pendinginterrupts);
+				pendinginterrupts &= ~(1 << vector);
+				interrupt(vector);
 			}
 		} catch (IOException e) {
 		}
@@ -554,6 +630,44 @@ public class Simulate extends JPanel implements ActionListener, KeyListener,
 		return true;
 	}
 
+	// push the PC and jump to the given interrupt vector with interrupts masked
+	private void interrupt(int vector) {
+		interrupts++;
+		SP.set(SP.get() + 1);
+		try {
+			cache.set(SP.get(), PC.get());
+		} catch (MemFaultException e) { // note if we run out of stack
+			// we have major problems
+		}
+		PC.set(vector);
+		SR.set(SR.get() | (1 << IMBIT));
+	}
+
+	// the same for a trap instruction, except a fault pushing the PC is
+	// thrown so it is taken as a memory fault instead
+	private void trap() throws MemFaultException {
+		SP.set(SP.get() + 1);
+		cache.set(SP.get(), PC.get());
+		interrupts++;
+		PC.set(TRAPINT);
+		SR.set(SR.get() | (1 << IMBIT));
+	}
+
+	public Snapshot snapshot() {
+		return new Snapshot(this);
+	}
+
+	// a device asks for an interrupt, it is taken once interrupts are unmasked
+	public void raiseInterrupt(int vector) {
+		pendinginterrupts |= 1 << vector;
+	}
+
+	// a device asks for event() to be called once count reaches when
+	public void schedule(int when) {
+		if (when < nextevent)
+			nextevent = when;
+	}
+
 	private int extend(int i) {
 		if ((0x8000 & i) == 0x8000) {
 			return i | 0xffff0000;
@@ -718,28 +832,56 @@ public class Simulate extends JPanel implements ActionListener, KeyListener,
 
 	}
 
-	public void terminalAppend(int value) {
-		String content = terminal.getText()
-				+ String.format("%c", 0x000000FF & value);
-		if (countlines(content) > TERMINALLINES) {
-			content = content.substring(content.indexOf('\n') + 1);
+	// a character written by the program to the terminal
+	public void output(int value) {
+		if (term) {
+			if (!output.pending()) {
+				outputsince = System.nanoTime();
+				outputflushat = count + TerminalOutput.FLUSHSTEPS;
+				schedule(outputflushat);
+			}
+			output.put(value);
+		} else {
+			terminalAppend(value);
 		}
-		if (content.length() - content.lastIndexOf('\n') > TERMINALWIDTH) {
-			content = content.substring(0, content.length() - 1) + "\n"
-					+ content.charAt(content.length() - 1);
+	}
+
+	// a partial line is written out once it has waited FLUSHTIME, which
+	// is looked at every FLUSHSTEPS instructions
+	private void outputEvent() {
+		if (!term)
+			return;
+		if (output.pending() && count >= outputflushat) {
+			if (System.nanoTime() - outputsince >= TerminalOutput.FLUSHTIME) {
+				output.flush();
+				return;
+			}
+			outputflushat = count + TerminalOutput.FLUSHSTEPS;
 		}
+		if (output.pending())
+			schedule(outputflushat);
+	}
 
-		terminal.setText(content);
+	public void setSemihost(boolean on) {
+		semihost = on ? new Semihost(this) : null;
+	}
 
+	public void terminalAppend(int value) {
+		terminalbuffer.put(0xFF & value);
 	}
 
-	private int countlines(String content) {
-		int count = 0;
-		for (int i = 0; i < content.length(); i++) {
-			if (content.charAt(i) == '\n')
-				count++;
+	private void drawTerminal() {
+		int stamp = terminalbuffer.stamp;
+		if (stamp != terminaldrawn) {
+			terminaldrawn = stamp;
+			terminal.setText(terminalbuffer.text());
+			terminal.setCaretPosition(terminal.getDocument().getLength());
 		}
-		return count;
+	}
+
+	// keep TERMINALSCROLLBACK lines rather than just those that fit
+	public void setScrollback(boolean on) {
+		terminalbuffer.setCapacity(on ? TERMINALSCROLLBACK : TERMINALLINES + 1);
 	}
 
 	@Override
@@ -765,6 +907,7 @@ public class Simulate extends JPanel implements ActionListener, KeyListener,
 
 	public void toggleProfile() {
 		profile = !profile;
+		memory.setProfiling(profile);
 		if (profile) {
 			memtable.addColumn(profileColumn);
 			memtable.moveColumn(5, 1);
@@ -831,7 +974,7 @@ public class Simulate extends JPanel implements ActionListener, KeyListener,
 			wid = Simulate.SCREENWIDTH;
 		}
 
-		terminal.setBounds(0, size.height - hei, size.width - wid, hei);
+		terminalscroll.setBounds(0, size.height - hei, size.width - wid, hei);
 		screen.setBounds(size.width - wid, size.height - hei, wid, hei);
 		memscroll.setBounds(0, ytop, size.width - rs.width, size.height - hei
 				- ytop);
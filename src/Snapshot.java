@@ -0,0 +1,277 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+rPeanut - is a simple simulator of the rPeANUt computer.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+// The state of a machine at one point in time. The memory pages are shared
+// copy-on-write with the machine the snapshot was taken from and with every
+// machine forked from it, so taking a snapshot and forking are cheap.
+// The display's page and vertical blank timing, and the text mode's cells,
+// are part of a snapshot. The other devices (coprocessor, blitter, disk) are not, a fork starts with
+// them reset.
+public class Snapshot {
+	boolean term;
+	int r[];
+	int sp, ir, sr, pc;
+	int count;
+	int interrupts;
+	int cycles, hits, accesses, reads, writes; // the cache's counters
+	boolean halt;
+	int exitcode;
+	int semihostcost; // -1 if semihosting is off
+	boolean timeroff;
+	String terminalChar;
+	boolean terminalCharInterrupt;
+	int breakpoints[];
+	int pages[][];
+	int displaypage, frames, period, nextblank;
+	boolean vblankinterrupt;
+	int textcells[];
+	boolean textenabled;
+
+	// The file format, all big endian:
+	//   int MAGIC, int VERSION
+	//   int R0 ... R7, SP, IR, SR, PC
+	//   int count, interrupts, exitcode, semihostcost
+	//   int cache cycles, hits, accesses, reads, writes
+	//   int flags - bit 0 halt, bit 1 timeroff, bit 2 terminalCharInterrupt
+	//   int n, then n chars of pending terminal input (as ints)
+	//   int n, then the n addresses with breakpoints
+	//   int display page, vblank interrupt (0 or 1), frames, period, and the
+	//   count of the next vertical blank
+	//   int text enabled (0 or 1), then the TextMode.COLUMNS * ROWS cells
+	//   int n, then n pages each as the page number followed by the
+	//   Memory.PAGESIZE words of the page, pages that are all zero are left out
+	static final int MAGIC = 0x72504e55; // "rPNU"
+	static final int VERSION = 4;
+
+	private Snapshot() {
+	}
+
+	public Snapshot(Simulate sim) {
+		term = sim.term;
+		r = new int[Simulate.numReg];
+		for (int i = 0; i < Simulate.numReg; i++)
+			r[i] = sim.r[i].get();
+		sp = sim.SP.get();
+		ir = sim.IR.get();
+		sr = sim.SR.get();
+		pc = sim.PC.get();
+		count = sim.count;
+		interrupts = sim.interrupts;
+		cycles = sim.cache.count;
+		hits = sim.cache.hits;
+		accesses = sim.cache.accesses;
+		reads = sim.cache.reads;
+		writes = sim.cache.writes;
+		halt = sim.halt;
+		exitcode = sim.exitcode;
+		semihostcost = sim.semihost == null ? -1 : sim.semihost.cost;
+		timeroff = sim.timeroff;
+		terminalChar = sim.terminalChar;
+		terminalCharInterrupt = sim.terminalCharInterrupt;
+		breakpoints = sim.memory.breakpoints();
+		pages = sim.memory.sharePages();
+		displaypage = sim.display.page;
+		vblankinterrupt = sim.display.interrupt;
+		frames = sim.display.frames;
+		period = sim.display.period;
+		nextblank = sim.display.nextBlank();
+		textcells = sim.textmode.cells.clone();
+		textenabled = sim.textmode.enabled;
+	}
+
+	// puts the machine back into the state of the snapshot
+	public void restore(Simulate sim) {
+		sim.reset();
+		for (int i = 0; i < Simulate.numReg; i++)
+			sim.r[i].set(r[i]);
+		sim.SP.set(sp);
+		sim.IR.set(ir);
+		sim.SR.set(sr);
+		sim.PC.set(pc);
+		sim.count = count;
+		sim.interrupts = interrupts;
+		sim.cache.count = cycles;
+		sim.cache.hits = hits;
+		sim.cache.accesses = accesses;
+		sim.cache.reads = reads;
+		sim.cache.writes = writes;
+		sim.halt = halt;
+		sim.exitcode = exitcode;
+		sim.setSemihost(semihostcost >= 0);
+		if (semihostcost >= 0)
+			sim.semihost.cost = semihostcost;
+		sim.timeroff = timeroff;
+		sim.terminalChar = terminalChar;
+		sim.terminalCharInterrupt = terminalCharInterrupt;
+		sim.memory.usePages(pages);
+		for (int add : breakpoints)
+			sim.memory.setBreakpoint(add);
+		sim.display.restore(displaypage, vblankinterrupt, frames, period,
+				nextblank);
+		sim.textmode.restore(textcells, textenabled);
+	}
+
+	public void save(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			for (int i = 0; i < Simulate.numReg; i++)
+				out.writeInt(r[i]);
+			out.writeInt(sp);
+			out.writeInt(ir);
+			out.writeInt(sr);
+			out.writeInt(pc);
+			out.writeInt(count);
+			out.writeInt(interrupts);
+			out.writeInt(exitcode);
+			out.writeInt(semihostcost);
+			out.writeInt(cycles);
+			out.writeInt(hits);
+			out.writeInt(accesses);
+			out.writeInt(reads);
+			out.writeInt(writes);
+			out.writeInt((halt ? 1 : 0) | (timeroff ? 2 : 0)
+					| (terminalCharInterrupt ? 4 : 0));
+			out.writeInt(terminalChar.length());
+			for (int i = 0; i < terminalChar.length(); i++)
+				out.writeInt(terminalChar.charAt(i));
+			out.writeInt(breakpoints.length);
+			for (int add : breakpoints)
+				out.writeInt(add);
+			out.writeInt(displaypage);
+			out.writeInt(vblankinterrupt ? 1 : 0);
+			out.writeInt(frames);
+			out.writeInt(period);
+			out.writeInt(nextblank);
+			out.writeInt(textenabled ? 1 : 0);
+			for (int c : textcells)
+				out.writeInt(c);
+
+			int n = 0;
+			for (int p = 0; p < pages.length; p++)
+				if (!zero(pages[p]))
+					n++;
+			out.writeInt(n);
+			for (int p = 0; p < pages.length; p++) {
+				if (zero(pages[p]))
+					continue;
+				out.writeInt(p);
+				for (int w : pages[p])
+					out.writeInt(w);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	// Loads a snapshot saved with save(), the file is mapped rather than read
+	// so the memory image is copied straight out of the page cache.
+	public static Snapshot load(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			ByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY,
+					0, raf.length());
+			IntBuffer in = buf.asIntBuffer();
+			if (in.remaining() < 2 || in.get() != MAGIC)
+				throw new IOException("not an rPeANUt snapshot : " + file);
+			int version = in.get();
+			if (version != VERSION)
+				throw new IOException("unknown snapshot version " + version
+						+ " : " + file);
+
+			Snapshot s = new Snapshot();
+			s.term = true;
+			s.r = new int[Simulate.numReg];
+			in.get(s.r);
+			s.sp = in.get();
+			s.ir = in.get();
+			s.sr = in.get();
+			s.pc = in.get();
+			s.count = in.get();
+			s.interrupts = in.get();
+			s.exitcode = in.get();
+			s.semihostcost = in.get();
+			s.cycles = in.get();
+			s.hits = in.get();
+			s.accesses = in.get();
+			s.reads = in.get();
+			s.writes = in.get();
+			int flags = in.get();
+			s.halt = (flags & 1) != 0;
+			s.timeroff = (flags & 2) != 0;
+			s.terminalCharInterrupt = (flags & 4) != 0;
+			char chars[] = new char[in.get()];
+			for (int i = 0; i < chars.length; i++)
+				chars[i] = (char) in.get();
+			s.terminalChar = new String(chars);
+			s.breakpoints = new int[in.get()];
+			in.get(s.breakpoints);
+			s.displaypage = in.get();
+			s.vblankinterrupt = in.get() != 0;
+			s.frames = in.get();
+			s.period = in.get();
+			s.nextblank = in.get();
+			s.textenabled = in.get() != 0;
+			s.textcells = new int[TextMode.COLUMNS * TextMode.ROWS];
+			in.get(s.textcells);
+
+			s.pages = new int[Memory.numPages][];
+			int n = in.get();
+			for (int i = 0; i < n; i++) {
+				int p = in.get();
+				if (p < 0 || p >= Memory.numPages)
+					throw new IOException("bad page in snapshot : " + file);
+				s.pages[p] = new int[Memory.PAGESIZE];
+				in.get(s.pages[p]);
+			}
+			for (int p = 0; p < s.pages.length; p++)
+				if (s.pages[p] == null)
+					s.pages[p] = Memory.ZEROPAGE;
+			return s;
+		} catch (RuntimeException e) { // the buffer ran out
+			throw new IOException("corrupt snapshot : " + file);
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static boolean zero(int page[]) {
+		for (int w : page)
+			if (w != 0)
+				return false;
+		return true;
+	}
+
+	// a new machine that carries on from the snapshot
+	public Simulate fork() {
+		Simulate child = new Simulate(term, false, false);
+		restore(child);
+		return child;
+	}
+}
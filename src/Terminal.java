@@ -0,0 +1,99 @@
+import java.io.IOException;
+
+/*
+rPeanut - is a simple simulator of the rPeANUt computer.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+// The terminal, mapped at 0xFFF0 - 0xFFF2:
+//   0xFFF0 data    - read the next character typed (0 if none), or write a
+//                    character to the terminal
+//   0xFFF1 status  - bit 0 set if a character is waiting
+//   0xFFF2 control - bit 0 set enables the terminal interrupt
+public class Terminal implements Device {
+	static final int START = 0xFFF0;
+	static final int END = 0xFFF2;
+
+	static final int DATA = 0xFFF0;
+	static final int STATUS = 0xFFF1;
+	static final int CONTROL = 0xFFF2;
+
+	Simulate simulate;
+
+	public Terminal(Simulate sim) {
+		simulate = sim;
+	}
+
+	@Override
+	public int read(int add) throws MemFaultException {
+		if (add != CONTROL && simulate.stoponinput)
+			throw new InputWaitException();
+		if (add == DATA) {
+			if (simulate.term) {
+				try {
+					if (simulate.input.available() > 0) {
+						int tchar = simulate.input.read();
+						return tchar;
+					} else {
+						simulate.output.flush();
+						return 0;
+					}
+				} catch (IOException e) {
+
+					return 0;
+				}
+			} else {
+				if (simulate.terminalChar.length() == 0) {
+					return 0;
+				} else {
+					int c = simulate.terminalChar.charAt(0);
+					simulate.terminalChar = simulate.terminalChar.substring(1);
+					return c;
+
+				}
+
+			}
+		}
+		if (add == STATUS) {
+			if (simulate.term) {
+				try {
+					if (simulate.input.available() > 0)
+						return 0x0001;
+					// the program is waiting, show it what it has printed
+					simulate.output.flush();
+					return 0x0000;
+				} catch (IOException e) {
+					return (0x0000);
+
+				}
+			} else {
+				return (simulate.terminalChar.length() > 0 ? 0x0001 : 0x0000);
+			}
+		}
+		return (simulate.terminalCharInterrupt ? 0x0001 : 0x0000);
+	}
+
+	@Override
+	public void write(int add, int value) {
+		if (add == DATA) {
+			simulate.output(value);
+		} else if (add == CONTROL) {
+			simulate.terminalCharInterrupt = (value & 0x0001) == 0x0001;
+			// the program is about to wait for the interrupt
+			if (simulate.term && simulate.terminalCharInterrupt)
+				simulate.output.flush();
+		}
+	}
+}
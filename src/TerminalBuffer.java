@@ -0,0 +1,94 @@
+/*
+rPeanut - is a simple simulator of the rPeANUt computer.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+// The text of the GUI terminal, a ring of fixed width lines. Characters are
+// put in by the simulator thread, each costing a store into the last line,
+// and the event thread copies out the whole text when stamp has moved on.
+// Lines longer than the width wrap, and once the ring is full the oldest
+// line is dropped. The capacity is the number of lines shown, or more to
+// keep some scrollback.
+public class TerminalBuffer {
+	private final int width;
+	private char cells[][];
+	private int lens[];
+	private int first; // ring index of the oldest line
+	private int lines; // lines in use, the last one is written to
+
+	volatile int stamp; // bumped on every change
+
+	public TerminalBuffer(int width, int capacity) {
+		this.width = width;
+		setCapacity(capacity);
+	}
+
+	// keeps the newest lines that fit
+	public synchronized void setCapacity(int capacity) {
+		char nc[][] = new char[capacity][width];
+		int nl[] = new int[capacity];
+		int keep = cells == null ? 0 : Math.min(lines, capacity);
+		for (int i = 0; i < keep; i++) {
+			int from = (first + lines - keep + i) % cells.length;
+			System.arraycopy(cells[from], 0, nc[i], 0, lens[from]);
+			nl[i] = lens[from];
+		}
+		cells = nc;
+		lens = nl;
+		first = 0;
+		lines = Math.max(1, keep);
+		stamp++;
+	}
+
+	public synchronized void clear() {
+		first = 0;
+		lines = 1;
+		lens[0] = 0;
+		stamp++;
+	}
+
+	public synchronized void put(int c) {
+		if (c == '\n') {
+			newline();
+		} else {
+			int last = (first + lines - 1) % cells.length;
+			if (lens[last] == width) {
+				newline();
+				last = (first + lines - 1) % cells.length;
+			}
+			cells[last][lens[last]++] = (char) c;
+		}
+		stamp++;
+	}
+
+	private void newline() {
+		if (lines == cells.length)
+			first = (first + 1) % cells.length;
+		else
+			lines++;
+		lens[(first + lines - 1) % cells.length] = 0;
+	}
+
+	public synchronized String text() {
+		StringBuilder sb = new StringBuilder(lines * (width + 1));
+		for (int i = 0; i < lines; i++) {
+			if (i > 0)
+				sb.append('\n');
+			int l = (first + i) % cells.length;
+			sb.append(cells[l], 0, lens[l]);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,100 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/*
+rPeanut - is a simple simulator of the rPeANUt computer.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+// The terminal output in term mode. Characters are collected in a buffer
+// and written out a block at a time rather than one system call each.
+// Written to a stream the buffer is flushed at the end of every line so
+// the terminal stays interactive, written to a file channel (-out) it is
+// only flushed when full or when asked. The simulator also flushes it
+// when the program waits for input, when it enables the terminal
+// interrupt, when it halts, and once a partial line has waited FLUSHTIME.
+public class TerminalOutput {
+	static final int SIZE = 1 << 16;
+	static final int FLUSHSTEPS = 1 << 12; // instructions between looks at the clock
+	static final long FLUSHTIME = 50000000L; // nanoseconds
+
+	private byte buf[]; // allocated when first needed
+	private int n;
+
+	private OutputStream out;
+	private FileChannel channel;
+	private boolean lineflush;
+
+	public TerminalOutput(OutputStream out) {
+		this.out = out;
+		lineflush = true;
+	}
+
+	public TerminalOutput(FileChannel channel) {
+		this.channel = channel;
+		lineflush = false;
+	}
+
+	public void put(int c) {
+		c &= 0xff;
+		if (c < 0x80) {
+			add(c);
+		} else {
+			// the same bytes as printing the character did
+			for (byte b : String.valueOf((char) c).getBytes())
+				add(b);
+		}
+		if (c == '\n' && lineflush)
+			flush();
+	}
+
+	private void add(int b) {
+		if (buf == null)
+			buf = new byte[SIZE];
+		if (n == SIZE)
+			flush();
+		buf[n++] = (byte) b;
+	}
+
+	public boolean pending() {
+		return n > 0;
+	}
+
+	// errors are dropped, as they were when printing to System.out
+	public void flush() {
+		if (n == 0)
+			return;
+		try {
+			if (channel != null) {
+				ByteBuffer b = ByteBuffer.wrap(buf, 0, n);
+				while (b.hasRemaining())
+					channel.write(b);
+			} else {
+				out.write(buf, 0, n);
+				out.flush();
+			}
+		} catch (IOException e) {
+		}
+		n = 0;
+	}
+
+	public void close() throws IOException {
+		flush();
+		if (channel != null)
+			channel.close();
+	}
+}
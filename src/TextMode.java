@@ -0,0 +1,202 @@
+/*
+rPeanut - is a simple simulator of the rPeANUt computer.
+
+This program is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 3 of the License, or
+(at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>.
+*/
+
+// A text mode laid over the bitmap screen, 24 columns by 20 rows of 8x8
+// characters. The character buffer is mapped at 0xFC00 - 0xFDDF, a word a
+// cell, row by row, and the control register at 0xFF38:
+//   0xFF38 control - bit 0 set shows the text
+// Each cell word holds:
+//   bits 0-7   the character, 32 - 126 are drawn from FONT, others blank
+//   bit 8      inverse, also makes the cell opaque
+//   bit 9      underline
+//   bit 10     opaque, the background colour is drawn behind the character,
+//              otherwise the bitmap shows through
+//   bit 11     colour, use the colours below rather than white on black
+//   bits 12-14 foreground colour, bits 16-18 background colour, as
+//              0 black, 1 blue, 2 green, 3 cyan, 4 red, 5 magenta,
+//              6 yellow, 7 white
+// A zero cell shows nothing. Screen draws the text as it draws each line.
+public class TextMode implements Device {
+	static final int START = 0xFC00;
+	static final int COLUMNS = Simulate.SCREENWIDTH / 8;
+	static final int ROWS = Simulate.SCREENHEIGHT / 8;
+	static final int END = START + COLUMNS * ROWS - 1;
+	static final int CONTROL = 0xFF38;
+
+	static final int INVERSE = 1 << 8;
+	static final int UNDERLINE = 1 << 9;
+	static final int OPAQUE = 1 << 10;
+	static final int COLOUR = 1 << 11;
+
+	static final int PALETTE[] = { 0xff000000, 0xff0000ff, 0xff00ff00,
+			0xff00ffff, 0xffff0000, 0xffff00ff, 0xffffff00, 0xffffffff };
+
+	Simulate sim;
+	int cells[] = new int[COLUMNS * ROWS];
+	volatile boolean enabled;
+
+	public TextMode(Simulate sim) {
+		this.sim = sim;
+	}
+
+	public void reset() {
+		java.util.Arrays.fill(cells, 0);
+		enabled = false;
+	}
+
+	// for Snapshot
+	void restore(int cells[], boolean enabled) {
+		System.arraycopy(cells, 0, this.cells, 0, this.cells.length);
+		this.enabled = enabled;
+		sim.memory.stampLines(0, Simulate.SCREENHEIGHT - 1);
+	}
+
+	@Override
+	public int read(int add) {
+		if (add == CONTROL)
+			return enabled ? 1 : 0;
+		return cells[add - START];
+	}
+
+	@Override
+	public void write(int add, int value) {
+		if (add == CONTROL) {
+			enabled = (value & 1) != 0;
+			sim.memory.stampLines(0, Simulate.SCREENHEIGHT - 1);
+		} else {
+			int cell = add - START;
+			cells[cell] = value;
+			if (enabled) {
+				int row = cell / COLUMNS;
+				sim.memory.stampLines(row * 8, row * 8 + 7);
+			}
+		}
+	}
+
+	// The 8 rows of line gy of a cell's character, lowest bit leftmost,
+	// with the inverse and underline attributes applied.
+	static int glyphRow(int cell, int gy) {
+		int c = cell & 0xff;
+		int bits = c >= 32 && c < 127 ? (int) (FONT[c - 32] >>> (gy * 8)) & 0xff : 0;
+		if ((cell & UNDERLINE) != 0 && gy == 7)
+			bits = 0xff;
+		if ((cell & INVERSE) != 0)
+			bits ^= 0xff;
+		return bits;
+	}
+
+	// The characters 32 - 126, a long each, byte y is row y with the lowest
+	// bit leftmost. The glyphs are those of the 8x8 font in the IBM PC
+	// BIOS, as in the public domain font8x8_basic.
+	static final long FONT[] = {
+			0x0000000000000000L, //  
+			0x00180018183c3c18L, // !
+			0x0000000000003636L, // "
+			0x0036367f367f3636L, // #
+			0x000c1f301e033e0cL, // $
+			0x0063660c18336300L, // %
+			0x006e333b6e1c361cL, // &
+			0x0000000000030606L, // '
+			0x00180c0606060c18L, // (
+			0x00060c1818180c06L, // )
+			0x0000663cff3c6600L, // *
+			0x00000c0c3f0c0c00L, // +
+			0x060c0c0000000000L, // ,
+			0x000000003f000000L, // -
+			0x000c0c0000000000L, // .
+			0x000103060c183060L, // /
+			0x003e676f7b73633eL, // 0
+			0x003f0c0c0c0c0e0cL, // 1
+			0x003f33061c30331eL, // 2
+			0x001e33301c30331eL, // 3
+			0x0078307f33363c38L, // 4
+			0x001e3330301f033fL, // 5
+			0x001e33331f03061cL, // 6
+			0x000c0c0c1830333fL, // 7
+			0x001e33331e33331eL, // 8
+			0x000e18303e33331eL, // 9
+			0x000c0c00000c0c00L, // :
+			0x060c0c00000c0c00L, // ;
+			0x00180c0603060c18L, // <
+			0x00003f00003f0000L, // =
+			0x00060c1830180c06L, // >
+			0x000c000c1830331eL, // ?
+			0x001e037b7b7b633eL, // @
+			0x0033333f33331e0cL, // A
+			0x003f66663e66663fL, // B
+			0x003c66030303663cL, // C
+			0x001f36666666361fL, // D
+			0x007f46161e16467fL, // E
+			0x000f06161e16467fL, // F
+			0x007c66730303663cL, // G
+			0x003333333f333333L, // H
+			0x001e0c0c0c0c0c1eL, // I
+			0x001e333330303078L, // J
+			0x006766361e366667L, // K
+			0x007f66460606060fL, // L
+			0x0063636b7f7f7763L, // M
+			0x006363737b6f6763L, // N
+			0x001c36636363361cL, // O
+			0x000f06063e66663fL, // P
+			0x00381e3b3333331eL, // Q
+			0x006766363e66663fL, // R
+			0x001e33380e07331eL, // S
+			0x001e0c0c0c0c2d3fL, // T
+			0x003f333333333333L, // U
+			0x000c1e3333333333L, // V
+			0x0063777f6b636363L, // W
+			0x0063361c1c366363L, // X
+			0x001e0c0c1e333333L, // Y
+			0x007f664c1831637fL, // Z
+			0x001e06060606061eL, // [
+			0x00406030180c0603L, // \
+			0x001e18181818181eL, // ]
+			0x0000000063361c08L, // ^
+			0xff00000000000000L, // _
+			0x0000000000180c0cL, // `
+			0x006e333e301e0000L, // a
+			0x003b66663e060607L, // b
+			0x001e3303331e0000L, // c
+			0x006e33333e303038L, // d
+			0x001e033f331e0000L, // e
+			0x000f06060f06361cL, // f
+			0x1f303e33336e0000L, // g
+			0x006766666e360607L, // h
+			0x001e0c0c0c0e000cL, // i
+			0x1e33333030300030L, // j
+			0x0067361e36660607L, // k
+			0x001e0c0c0c0c0c0eL, // l
+			0x00636b7f7f330000L, // m
+			0x00333333331f0000L, // n
+			0x001e3333331e0000L, // o
+			0x0f063e66663b0000L, // p
+			0x78303e33336e0000L, // q
+			0x000f06666e3b0000L, // r
+			0x001f301e033e0000L, // s
+			0x00182c0c0c3e0c08L, // t
+			0x006e333333330000L, // u
+			0x000c1e3333330000L, // v
+			0x00367f7f6b630000L, // w
+			0x0063361c36630000L, // x
+			0x1f303e3333330000L, // y
+			0x003f260c193f0000L, // z
+			0x00380c0c070c0c38L, // {
+			0x0018181800181818L, // |
+			0x00070c0c380c0c07L, // }
+			0x0000000000003b6eL // ~
+	};
+}